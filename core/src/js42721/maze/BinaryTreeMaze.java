@@ -1,17 +1,25 @@
 package js42721.maze;
 
 import java.io.Serializable;
-import java.util.Random;
+import java.util.Arrays;
+
+import js42721.maze.storage.MazeStorage;
 
 /**
  * Implements the binary tree algorithm. The algorithm carves in one of two
  * directions from each node. The result is a binary tree rooted at the corner
- * where the two carving directions converge.
+ * where the two carving directions converge. Since each row only touches
+ * the one above it, the algorithm can also stream rows to a {@link RowSink}
+ * without storing the maze.
  */
 public class BinaryTreeMaze extends Maze implements Serializable {
-    private static final long serialVersionUID = -7079713075260480096L;
+    private static final long serialVersionUID = 4055931386419337910L;
+
+    private long seed;
+    private final MazeRandom rnd;
 
-    private final Random rnd;
+    /* The rows being generated, kept between steps and reused by the next generation. */
+    private transient Rows rows;
 
     /**
      * Sets the dimensions of the maze.
@@ -21,22 +29,178 @@ public class BinaryTreeMaze extends Maze implements Serializable {
      * @throws IllegalArgumentException if width or height is not positive
      */
     public BinaryTreeMaze(int width, int height) {
+        this(width, height, MazeRandom.newSeed());
+    }
+
+    /**
+     * Sets the dimensions of the maze and the seed of its random generator.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  seed   the seed of the random generator
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public BinaryTreeMaze(int width, int height, long seed) {
         super(width, height);
-        rnd = new Random();
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze.
+     *
+     * @param  storage the storage for the maze nodes
+     * @throws NullPointerException if storage is null
+     */
+    public BinaryTreeMaze(MazeStorage storage) {
+        this(storage, MazeRandom.newSeed());
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze and sets the seed
+     * of its random generator.
+     *
+     * @param  storage the storage for the maze nodes
+     * @param  seed    the seed of the random generator
+     * @throws NullPointerException if storage is null
+     */
+    public BinaryTreeMaze(MazeStorage storage, long seed) {
+        super(storage);
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /** Returns the seed of the random generator. */
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public void reset(long seed) {
+        abortSteps();
+        this.seed = seed;
+        rnd.setSeed(seed);
     }
 
     @Override
     public void generate() {
-        clear();
-        addBorder();
-        binaryTreeMaze();
+        abortSteps();
+        Rows rows = startRows();
+        boolean last;
+        do {
+            last = rows.next();
+        } while (!last);
+    }
+
+    @Override
+    protected void beginSteps() {
+        fill();
+        startRows();
     }
 
-    private void binaryTreeMaze() {
-        for (int y = 1; y < getHeight(); ++y) {
-            for (int x = 1; x < getWidth(); ++x) {
-                addWall(x, y, rnd.nextBoolean() ? Direction.WEST : Direction.NORTH);
+    /** Generates whole rows, each counting as one operation per node. */
+    @Override
+    protected boolean runSteps(int maxOperations) {
+        for (int ops = 0; ops < maxOperations; ops += getWidth()) {
+            if (rows.next()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Starts a generation, reusing the rows of the last one if there was one. */
+    private Rows startRows() {
+        if (rows == null) {
+            rows = new Rows(getWidth(), getHeight(), rnd, this::setRow);
+        } else {
+            rows.start();
+        }
+        return rows;
+    }
+
+    /**
+     * Generates a maze row by row without storing it. A row is passed to the
+     * sink once the row below it has been decided, and only two rows are kept
+     * at a time, so the height is limited only by the sink.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  rnd    the source of randomness
+     * @param  sink   the receiver of the rows
+     * @throws IllegalArgumentException if width or height is not positive
+     * @throws NullPointerException if rnd or sink is null
+     */
+    public static void generateRows(int width, int height, MazeRandom rnd, RowSink sink) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Width and height must be positive");
+        }
+        if (rnd == null || sink == null) {
+            throw new NullPointerException();
+        }
+        Rows rows = new Rows(width, height, rnd, sink);
+        boolean last;
+        do {
+            last = rows.next();
+        } while (!last);
+    }
+
+    /** The state of a row by row generation. */
+    private static class Rows {
+        final int height;
+        final MazeRandom rnd;
+        final RowSink sink;
+        byte[] prev;
+        byte[] row;
+        int y;
+
+        Rows(int width, int height, MazeRandom rnd, RowSink sink) {
+            this.height = height;
+            this.rnd = rnd;
+            this.sink = sink;
+            prev = new byte[width];
+            row = new byte[width];
+            start();
+        }
+
+        /** Starts again from the first row, walled along the north border. */
+        void start() {
+            y = 1;
+            startRow(prev, height == 1);
+            for (int x = 0; x < prev.length; ++x) {
+                prev[x] |= Direction.NORTH.mask;
             }
         }
+
+        /** Passes the next row to the sink and returns true if it was the last. */
+        boolean next() {
+            if (y == height) {
+                sink.acceptRow(height - 1, prev);
+                return true;
+            }
+            startRow(row, y == height - 1);
+            for (int x = 1; x < row.length; ++x) {
+                if (rnd.nextBoolean()) {
+                    row[x] |= Direction.WEST.mask;
+                    row[x - 1] |= Direction.EAST.mask;
+                } else {
+                    row[x] |= Direction.NORTH.mask;
+                    prev[x] |= Direction.SOUTH.mask;
+                }
+            }
+            sink.acceptRow(y - 1, prev);
+            byte[] tmp = prev;
+            prev = row;
+            row = tmp;
+            ++y;
+            return false;
+        }
+    }
+
+    /** Clears a row and puts up its share of the border. */
+    private static void startRow(byte[] row, boolean last) {
+        Arrays.fill(row, last ? (byte) Direction.SOUTH.mask : 0);
+        row[0] |= Direction.WEST.mask;
+        row[row.length - 1] |= Direction.EAST.mask;
     }
 }
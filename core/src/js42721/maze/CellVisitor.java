@@ -0,0 +1,14 @@
+package js42721.maze;
+
+/** Receives the nodes of a maze from {@link Maze#forEachCell(CellVisitor)}. */
+public interface CellVisitor {
+    /**
+     * Visits a node.
+     *
+     * @param index the index of the node
+     * @param x     the x-coordinate of the node
+     * @param y     the y-coordinate of the node
+     * @param walls the wall bits of the node
+     */
+    void visit(int index, int x, int y, int walls);
+}
@@ -1,13 +1,24 @@
 package js42721.maze;
 
 import java.io.Serializable;
-import java.util.Random;
 
-/** Implements an algorithm which some people refer to as Eller's algorithm. */
+import js42721.maze.storage.MazeStorage;
+
+/**
+ * Implements an algorithm which some people refer to as Eller's algorithm.
+ * Since the algorithm only needs the previous row, it can also stream rows to
+ * a {@link RowSink} without storing the maze.
+ */
 public class Ellers extends Maze implements Serializable {
-    private static final long serialVersionUID = -4403644618765868512L;
+    private static final long serialVersionUID = 7096435304718927494L;
+
+    private static final byte ALL = 0xf;
+
+    private long seed;
+    private final MazeRandom rnd;
 
-    private final Random rnd;
+    /* The rows being generated, kept between steps and reused by the next generation. */
+    private transient Rows rows;
 
     /**
      * Sets the dimensions of the maze.
@@ -17,72 +28,233 @@ public class Ellers extends Maze implements Serializable {
      * @throws IllegalArgumentException if width or height is not positive
      */
     public Ellers(int width, int height) {
+        this(width, height, MazeRandom.newSeed());
+    }
+
+    /**
+     * Sets the dimensions of the maze and the seed of its random generator.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  seed   the seed of the random generator
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public Ellers(int width, int height, long seed) {
         super(width, height);
-        rnd = new Random();
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze.
+     *
+     * @param  storage the storage for the maze nodes
+     * @throws NullPointerException if storage is null
+     */
+    public Ellers(MazeStorage storage) {
+        this(storage, MazeRandom.newSeed());
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze and sets the seed
+     * of its random generator.
+     *
+     * @param  storage the storage for the maze nodes
+     * @param  seed    the seed of the random generator
+     * @throws NullPointerException if storage is null
+     */
+    public Ellers(MazeStorage storage, long seed) {
+        super(storage);
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /** Returns the seed of the random generator. */
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public void reset(long seed) {
+        abortSteps();
+        this.seed = seed;
+        rnd.setSeed(seed);
     }
 
     @Override
     public void generate() {
+        abortSteps();
+        Rows rows = startRows();
+        boolean last;
+        do {
+            last = rows.next();
+        } while (!last);
+    }
+
+    @Override
+    protected void beginSteps() {
         fill();
-        ellers();
+        startRows();
+    }
+
+    /** Generates whole rows, each counting as one operation per node. */
+    @Override
+    protected boolean runSteps(int maxOperations) {
+        for (int ops = 0; ops < maxOperations; ops += getWidth()) {
+            if (rows.next()) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private void ellers() {
+    /** Starts a generation, reusing the rows of the last one if there was one. */
+    private Rows startRows() {
+        if (rows == null) {
+            rows = new Rows(getWidth(), getHeight(), rnd, this::setRow);
+        } else {
+            rows.start();
+        }
+        return rows;
+    }
+
+    /**
+     * Generates a maze row by row without storing it. Each row is passed to
+     * the sink as soon as it is finished, and only a few arrays as long as
+     * the width are kept, so the height is limited only by the sink.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  rnd    the source of randomness
+     * @param  sink   the receiver of the rows
+     * @throws IllegalArgumentException if width or height is not positive
+     * @throws NullPointerException if rnd or sink is null
+     */
+    public static void generateRows(int width, int height, MazeRandom rnd, RowSink sink) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Width and height must be positive");
+        }
+        if (rnd == null || sink == null) {
+            throw new NullPointerException();
+        }
+
+        Rows rows = new Rows(width, height, rnd, sink);
+        boolean last;
+        do {
+            last = rows.next();
+        } while (!last);
+    }
+
+    /** The state of a row by row generation. */
+    private static class Rows {
+        final int width;
+        final int height;
+        final MazeRandom rnd;
+        final RowSink sink;
+
         /*
          * Circular doubly linked lists are used to store sets of connected maze
          * nodes and these arrays store the left/right links of those lists.
          */
-        int[] l = new int[getWidth()];
-        int[] r = new int[getWidth()];
+        final int[] l;
+        final int[] r;
+
+        /* Walls of the current row. Only the south walls carry over. */
+        final byte[] row;
+
+        int y;
+
+        Rows(int width, int height, MazeRandom rnd, RowSink sink) {
+            this.width = width;
+            this.height = height;
+            this.rnd = rnd;
+            this.sink = sink;
+            l = new int[width];
+            r = new int[width];
+            row = new byte[width];
+            start();
+        }
+
+        /** Starts again from the first row. */
+        void start() {
+            y = 0;
 
-        /* Each node in the first row starts out in its own set. */
-        for (int x = 0; x < getWidth(); ++x) {
-            l[x] = r[x] = x;
+            /* Each node in the first row starts out in its own set. */
+            for (int x = 0; x < width; ++x) {
+                l[x] = r[x] = x;
+                row[x] = ALL;
+            }
         }
 
-        int xl = getWidth() - 1;
-        int yl = getHeight() - 1;
+        /** Passes the next row to the sink and returns true if it was the last. */
+        boolean next() {
+            int xl = width - 1;
+            int yl = height - 1;
+
+            if (y < yl) {
+                if (y > 0) {
+                    startRow(row);
+                }
+                for (int x = 0; x < xl; ++x) {
+                    /* Creates horizontal passages. */
+                    if (r[x] != x + 1 && rnd.nextInt(5) < 3) {
+                        /* Unions the sets by performing a list splice. */
+                        l[r[x]] = l[x + 1];
+                        r[l[x + 1]] = r[x];
+                        l[x + 1] = x;
+                        r[x] = x + 1;
+                        row[x] &= ~Direction.EAST.mask;
+                        row[x + 1] &= ~Direction.WEST.mask;
+                    }
+                    /* Creates vertical passages. */
+                    if (r[x] != x && rnd.nextInt(5) < 3) {
+                        /* Removes node from list so it has its own set. */
+                        l[r[x]] = l[x];
+                        r[l[x]] = r[x];
+                        l[x] = r[x] = x;
+                    } else {
+                        row[x] &= ~Direction.SOUTH.mask;
+                    }
+                }
+                /* Creates vertical passages for the last column. */
+                if (r[xl] != xl && rnd.nextInt(5) < 3) {
+                    l[r[xl]] = l[xl];
+                    r[l[xl]] = r[xl];
+                    l[xl] = r[xl] = xl;
+                } else {
+                    row[xl] &= ~Direction.SOUTH.mask;
+                }
+                sink.acceptRow(y++, row);
+                return false;
+            }
 
-        for (int y = 0; y < yl; ++y) {
+            /* Creates the last row. */
+            if (yl > 0) {
+                startRow(row);
+            }
             for (int x = 0; x < xl; ++x) {
-                /* Creates horizontal passages. */
-                if (r[x] != x + 1 && rnd.nextInt(5) < 3) {
-                    /* Unions the sets by performing a list splice. */
+                if (r[x] != x + 1) {
                     l[r[x]] = l[x + 1];
                     r[l[x + 1]] = r[x];
                     l[x + 1] = x;
                     r[x] = x + 1;
-                    removeWall(x, y, Direction.EAST);
-                }
-                /* Creates vertical passages. */
-                if (r[x] != x && rnd.nextInt(5) < 3) {
-                    /* Removes node from list so it has its own set. */
-                    l[r[x]] = l[x];
-                    r[l[x]] = r[x];
-                    l[x] = r[x] = x;
-                } else {
-                    removeWall(x, y, Direction.SOUTH);
+                    row[x] &= ~Direction.EAST.mask;
+                    row[x + 1] &= ~Direction.WEST.mask;
                 }
             }
-            /* Creates vertical passages for the last column. */
-            if (r[xl] != xl && rnd.nextInt(5) < 3) {
-                l[r[xl]] = l[xl];
-                r[l[xl]] = r[xl];
-                l[xl] = r[xl] = xl;
-            } else {
-                removeWall(xl, y, Direction.SOUTH);
-            }
+            sink.acceptRow(y++, row);
+            return true;
         }
+    }
 
-        /* Creates the last row. */
-        for (int x = 0; x < xl; ++x) {
-            if (r[x] != x + 1) {
-                l[r[x]] = l[x + 1];
-                r[l[x + 1]] = r[x];
-                l[x + 1] = x;
-                r[x] = x + 1;
-                removeWall(x, yl, Direction.EAST);
-            }
+    /**
+     * Turns the finished row into a fresh, fully walled row whose north
+     * walls match the south walls of the finished one.
+     */
+    private static void startRow(byte[] row) {
+        for (int x = 0; x < row.length; ++x) {
+            row[x] = ((row[x] & Direction.SOUTH.mask) != 0)
+                   ? ALL : (byte) (ALL & ~Direction.NORTH.mask);
         }
     }
 }
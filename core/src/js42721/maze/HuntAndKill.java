@@ -0,0 +1,246 @@
+package js42721.maze;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import js42721.maze.storage.MazeStorage;
+
+/**
+ * Implements the hunt-and-kill algorithm. Like the recursive backtracker, it
+ * carves a random walk into unvisited nodes until it gets stuck, which gives
+ * long corridors. Rather than backtracking, it then hunts for an unvisited
+ * node next to a visited one and starts a new walk from there. Visited nodes
+ * are kept in a bitset, so the hunt checks 64 nodes at a time.
+ */
+public class HuntAndKill extends Maze implements Serializable {
+    private static final long serialVersionUID = 7937412466071532893L;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private long seed;
+    private final MazeRandom rnd;
+
+    /*
+     * The state of a generation, kept between steps. The arrays are also kept
+     * between runs so that regenerating does not allocate.
+     */
+    private transient long[] visited;
+    private transient int[] moves;
+    private transient int wordsPerRow;
+    private transient int minVisitedRow;
+    private transient int walkX;
+    private transient int walkY;
+    private transient int firstOpenRow;
+    private transient int huntRow;
+
+    /**
+     * Sets the dimensions of the maze.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public HuntAndKill(int width, int height) {
+        this(width, height, MazeRandom.newSeed());
+    }
+
+    /**
+     * Sets the dimensions of the maze and the seed of its random generator.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  seed   the seed of the random generator
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public HuntAndKill(int width, int height, long seed) {
+        super(width, height);
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze.
+     *
+     * @param  storage the storage for the maze nodes
+     * @throws NullPointerException if storage is null
+     */
+    public HuntAndKill(MazeStorage storage) {
+        this(storage, MazeRandom.newSeed());
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze and sets the seed
+     * of its random generator.
+     *
+     * @param  storage the storage for the maze nodes
+     * @param  seed    the seed of the random generator
+     * @throws NullPointerException if storage is null
+     */
+    public HuntAndKill(MazeStorage storage, long seed) {
+        super(storage);
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /** Returns the seed of the random generator. */
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public void reset(long seed) {
+        abortSteps();
+        this.seed = seed;
+        rnd.setSeed(seed);
+    }
+
+    @Override
+    public void generate() {
+        abortSteps();
+        beginSteps();
+        runSteps(Integer.MAX_VALUE);
+        markModified();
+    }
+
+    @Override
+    protected void beginSteps() {
+        fill();
+        wordsPerRow = (getWidth() + 63) >>> 6;
+        if (visited == null) {
+            visited = new long[wordsPerRow * getHeight()];
+            moves = new int[4];
+        } else {
+            Arrays.fill(visited, 0);
+        }
+        minVisitedRow = Integer.MAX_VALUE;
+        walkX = rnd.nextInt(getWidth());
+        walkY = rnd.nextInt(getHeight());
+        firstOpenRow = 0;
+        huntRow = 0;
+        visit(walkX, walkY);
+    }
+
+    /** Carries out steps of the walk and hunts, each counting as one operation. */
+    @Override
+    protected boolean runSteps(int maxOperations) {
+        MazeStorage storage = getStorage();
+        for (int ops = 0; ops < maxOperations; ++ops) {
+            /* Walks into a random unvisited neighbor unless it is stuck. */
+            int moveCount = 0;
+            for (Direction d : DIRECTIONS) {
+                int tx = walkX + d.dx;
+                int ty = walkY + d.dy;
+                if (isInBounds(tx, ty) && !isVisited(tx, ty)) {
+                    moves[moveCount++] = d.ordinal();
+                }
+            }
+            if (moveCount > 0) {
+                Direction d = DIRECTIONS[moves[rnd.nextInt(moveCount)]];
+                carve(storage, walkX, walkY, d);
+                walkX += d.dx;
+                walkY += d.dy;
+                visit(walkX, walkY);
+                continue;
+            }
+
+            /* Skips the rows that are fully visited; they stay that way. */
+            while (firstOpenRow < getHeight() && isRowVisited(firstOpenRow)) {
+                ++firstOpenRow;
+            }
+
+            /*
+             * Hunts for an unvisited node next to a visited one. The rows
+             * above the last one hunted had none, and can only have gained
+             * some next to the nodes visited since.
+             */
+            huntRow = Math.max(firstOpenRow, Math.min(huntRow, minVisitedRow - 1));
+            long found = hunt(huntRow);
+            if (found < 0) {
+                return true;
+            }
+            walkX = (int) (found & 0xffffffffL);
+            walkY = (int) (found >>> 32);
+            huntRow = walkY;
+            minVisitedRow = Integer.MAX_VALUE;
+
+            /* Joins it to a random visited neighbor and walks on from it. */
+            moveCount = 0;
+            for (Direction d : DIRECTIONS) {
+                int tx = walkX + d.dx;
+                int ty = walkY + d.dy;
+                if (isInBounds(tx, ty) && isVisited(tx, ty)) {
+                    moves[moveCount++] = d.ordinal();
+                }
+            }
+            carve(storage, walkX, walkY, DIRECTIONS[moves[rnd.nextInt(moveCount)]]);
+            visit(walkX, walkY);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the first unvisited node with a visited neighbor, scanning rows
+     * from the top, as y in the high and x in the low 32 bits, or -1 if every
+     * node is visited.
+     */
+    private long hunt(int fromRow) {
+        int height = getHeight();
+        long lastMask = -1L >>> (63 - ((getWidth() - 1) & 63));
+        for (int y = fromRow; y < height; ++y) {
+            int row = y * wordsPerRow;
+            for (int i = 0; i < wordsPerRow; ++i) {
+                long here = visited[row + i];
+                long near = (here << 1) | (here >>> 1);
+                if (i > 0) {
+                    near |= visited[row + i - 1] >>> 63;
+                }
+                if (i < wordsPerRow - 1) {
+                    near |= visited[row + i + 1] << 63;
+                }
+                if (y > 0) {
+                    near |= visited[row - wordsPerRow + i];
+                }
+                if (y < height - 1) {
+                    near |= visited[row + wordsPerRow + i];
+                }
+                long candidates = near & ~here;
+                if (i == wordsPerRow - 1) {
+                    candidates &= lastMask;
+                }
+                if (candidates != 0) {
+                    long x = ((long) i << 6) + Long.numberOfTrailingZeros(candidates);
+                    return ((long) y << 32) | x;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean isRowVisited(int y) {
+        int row = y * wordsPerRow;
+        for (int i = 0; i < wordsPerRow - 1; ++i) {
+            if (visited[row + i] != -1L) {
+                return false;
+            }
+        }
+        long lastMask = -1L >>> (63 - ((getWidth() - 1) & 63));
+        return visited[row + wordsPerRow - 1] == lastMask;
+    }
+
+    private boolean isVisited(int x, int y) {
+        return (visited[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    private void visit(int x, int y) {
+        visited[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+        minVisitedRow = Math.min(minVisitedRow, y);
+    }
+
+    /** Removes the wall between a node and its neighbor in a direction. */
+    private static void carve(MazeStorage storage, int x, int y, Direction d) {
+        int u = storage.index(x, y);
+        int v = storage.index(x + d.dx, y + d.dy);
+        storage.setWalls(u, storage.getWalls(u) & ~d.mask);
+        storage.setWalls(v, storage.getWalls(v) & ~d.getReverse().mask);
+    }
+}
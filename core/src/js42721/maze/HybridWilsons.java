@@ -0,0 +1,259 @@
+package js42721.maze;
+
+import java.io.Serializable;
+
+import js42721.maze.storage.MazeStorage;
+
+/**
+ * Creates a uniform spanning tree like {@link Wilsons}, but grows the first
+ * part of the tree with the Aldous-Broder algorithm. A random walk carves a
+ * passage into every node it enters for the first time, which is fast while
+ * most nodes are unvisited, and slow once few are left. Wilson's walks are
+ * the other way around, so the algorithm switches to them once a given
+ * fraction of the nodes has been visited.
+ * <p>
+ * Walking from the unvisited nodes to the tree grown so far would not give a
+ * uniform spanning tree, since the rest of the Aldous-Broder tree depends on
+ * where its walk stopped. Wilson's walks are rooted at that node instead, and
+ * supply what the Aldous-Broder walk would have: the edges through which the
+ * unvisited nodes are first entered.
+ */
+public class HybridWilsons extends Maze implements Serializable {
+    private static final long serialVersionUID = -3104853268440191806L;
+
+    /* The first two bits are reserved for directions. */
+    private static final int DIRECTION_MASK = 3;
+    private static final int VISITED = 1 << 2;
+    private static final int IN = 1 << 3;
+
+    /* The phases of a generation. */
+    private static final int ALDOUS_BRODER = 0;
+    private static final int SCAN = 1;
+    private static final int WALK = 2;
+    private static final int TRACE = 3;
+
+    private long seed;
+    private final MazeRandom rnd;
+    private double switchFraction = 0.3;
+
+    /* The state of a generation, kept between steps. */
+    private transient int phase;
+    private transient int target;
+    private transient int visitedCount;
+    private transient int walker;
+    private transient int scan;
+    private transient int current;
+    private transient int walk;
+    private transient int trace;
+
+    /**
+     * Sets the dimensions of the maze.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public HybridWilsons(int width, int height) {
+        this(width, height, MazeRandom.newSeed());
+    }
+
+    /**
+     * Sets the dimensions of the maze and the seed of its random generator.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  seed   the seed of the random generator
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public HybridWilsons(int width, int height, long seed) {
+        super(width, height);
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze.
+     *
+     * @param  storage the storage for the maze nodes
+     * @throws NullPointerException if storage is null
+     */
+    public HybridWilsons(MazeStorage storage) {
+        this(storage, MazeRandom.newSeed());
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze and sets the seed
+     * of its random generator.
+     *
+     * @param  storage the storage for the maze nodes
+     * @param  seed    the seed of the random generator
+     * @throws NullPointerException if storage is null
+     */
+    public HybridWilsons(MazeStorage storage, long seed) {
+        super(storage);
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /** Returns the seed of the random generator. */
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public void reset(long seed) {
+        abortSteps();
+        this.seed = seed;
+        rnd.setSeed(seed);
+    }
+
+    /**
+     * Sets the fraction of the nodes visited by the Aldous-Broder walk before
+     * switching to Wilson's algorithm. 0 gives Wilson's algorithm grown from a
+     * random node and 1 gives the Aldous-Broder algorithm.
+     *
+     * @param  switchFraction the fraction, from 0 to 1
+     * @throws IllegalArgumentException if switchFraction is outside [0, 1]
+     */
+    public void setSwitchFraction(double switchFraction) {
+        if (!(switchFraction >= 0 && switchFraction <= 1)) {
+            throw new IllegalArgumentException("Switch fraction must be between 0 and 1");
+        }
+        this.switchFraction = switchFraction;
+    }
+
+    /** Returns the fraction of the nodes visited before switching. */
+    public double getSwitchFraction() {
+        return switchFraction;
+    }
+
+    @Override
+    public void generate() {
+        abortSteps();
+        beginSteps();
+        runSteps(Integer.MAX_VALUE);
+        markModified();
+    }
+
+    @Override
+    protected void beginSteps() {
+        fill();
+        MazeStorage storage = getStorage();
+        int nodes = getWidth() * getHeight();
+        walker = storage.index(rnd.nextInt(getWidth()), rnd.nextInt(getHeight()));
+        storage.setFlags(walker, VISITED);
+        target = Math.max(1, (int) Math.min(nodes, (long) (switchFraction * nodes)));
+        visitedCount = 1;
+        scan = 0;
+        phase = ALDOUS_BRODER;
+    }
+
+    /** Carries out steps of the walks, each counting as one operation. */
+    @Override
+    protected boolean runSteps(int maxOperations) {
+        MazeStorage storage = getStorage();
+        int width = getWidth();
+        int nodes = width * getHeight();
+        int ops = 0;
+
+        if (phase == ALDOUS_BRODER) {
+            /* Walks randomly until the tree has the target size. */
+            while (visitedCount < target) {
+                if (ops++ == maxOperations) {
+                    return false;
+                }
+                int d = randomMove(storage, walker);
+                int next = storage.neighbor(walker, d);
+                if (storage.getFlags(next) == 0) {
+                    carve(storage, walker, next, d);
+                    storage.setFlags(next, VISITED);
+                    ++visitedCount;
+                }
+                walker = next;
+            }
+            if (target == nodes) {
+                return true;
+            }
+
+            /*
+             * Had the Aldous-Broder walk gone on from the walker, each
+             * unvisited node would have been entered from its parent in a
+             * uniform spanning tree rooted at the walker, so that is the tree
+             * Wilson's algorithm grows from here. Only its edges into
+             * unvisited nodes are carved, as the visited nodes are already
+             * connected.
+             */
+            storage.setFlags(walker, VISITED | IN);
+            phase = SCAN;
+        }
+
+        while (true) {
+            if (phase == SCAN) {
+                /* Finds a node that is neither visited nor in the tree. */
+                do {
+                    if (scan == nodes) {
+                        return true;
+                    }
+                    if (ops++ == maxOperations) {
+                        return false;
+                    }
+                    current = storage.index(scan % width, scan / width);
+                    ++scan;
+                } while ((storage.getFlags(current) & (VISITED | IN)) != 0);
+                walk = current;
+                phase = WALK;
+            }
+
+            if (phase == WALK) {
+                /* Walks randomly until a node in the tree is found. */
+                int flags = storage.getFlags(walk);
+                while ((flags & IN) == 0) {
+                    if (ops++ == maxOperations) {
+                        return false;
+                    }
+                    int d = randomMove(storage, walk);
+
+                    /* Saves the node's exit direction. */
+                    storage.setFlags(walk, (flags & VISITED) | d);
+
+                    walk = storage.neighbor(walk, d);
+                    flags = storage.getFlags(walk);
+                }
+                trace = current;
+                phase = TRACE;
+            }
+
+            /* Traces the path of the walk but avoids any loops. */
+            int flags = storage.getFlags(trace);
+            while ((flags & IN) == 0) {
+                if (ops++ == maxOperations) {
+                    return false;
+                }
+                int d = flags & DIRECTION_MASK;
+                int next = storage.neighbor(trace, d);
+                if ((flags & VISITED) == 0) {
+                    carve(storage, trace, next, d);
+                }
+                storage.setFlags(trace, flags | IN);
+                trace = next;
+                flags = storage.getFlags(trace);
+            }
+            phase = SCAN;
+        }
+    }
+
+    /** Returns the ordinal of a random direction leading inside the maze. */
+    private int randomMove(MazeStorage storage, int n) {
+        int moves = ~storage.getOuterSides(n) & MazeStorage.WALL_MASK;
+        for (int k = rnd.nextInt(Integer.bitCount(moves)); k > 0; --k) {
+            moves &= moves - 1;
+        }
+        return Integer.numberOfTrailingZeros(moves);
+    }
+
+    /** Removes the wall between two adjacent nodes. */
+    private static void carve(MazeStorage storage, int u, int v, int d) {
+        storage.setWalls(u, storage.getWalls(u) & ~(1 << d));
+        storage.setWalls(v, storage.getWalls(v) & ~(1 << ((d + 2) & 3)));
+    }
+}
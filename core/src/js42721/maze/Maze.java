@@ -1,24 +1,33 @@
 package js42721.maze;
 
 import java.io.Serializable;
-import java.util.Arrays;
 
 import js42721.maze.coordinates.Point;
+import js42721.maze.storage.CellOrder;
+import js42721.maze.storage.HeapStorage;
+import js42721.maze.storage.MazeStorage;
 
 /**
  * A two-dimensional maze representation. The walls of a maze node are stored as
- * four bit fields. Each node is given a byte, leaving four unused bits per
- * node. These unused bits are made accessible to subclasses since they can be
- * useful when implementing maze generation algorithms that need to label nodes.
+ * four bit fields. Each node also has four flag bits. These are made
+ * accessible to subclasses since they can be useful when implementing maze
+ * generation algorithms that need to label nodes. The nodes are kept in a
+ * {@link MazeStorage}, which is a one-byte-per-node heap array unless another
+ * storage is given.
  */
 public abstract class Maze implements Serializable {
-    private static final long serialVersionUID = 6114059191423368387L;
+    private static final long serialVersionUID = -2715938442607714180L;
 
-    private static final int WALL_MASK = 0xf;
+    private static final int WALL_MASK = MazeStorage.WALL_MASK;
 
-    private final byte[] b;
+    /** The operations carried out between clock checks in stepFor. */
+    private static final int STEP_BATCH = 1024;
+
+    private final MazeStorage storage;
     private final int width;
     private final int height;
+    private int modCount;
+    private transient boolean stepping;
 
     /**
      * Sets the dimensions of the maze.
@@ -28,17 +37,131 @@ public abstract class Maze implements Serializable {
      * @throws IllegalArgumentException if width or height is not positive
      */
     protected Maze(int width, int height) {
-        if (width <= 0 || height <= 0) {
-            throw new IllegalArgumentException("Width and height must be positive");
+        this(new HeapStorage(width, height));
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze. The dimensions of
+     * the maze are those of the storage.
+     *
+     * @param  storage the storage for the maze nodes
+     * @throws NullPointerException if storage is null
+     */
+    protected Maze(MazeStorage storage) {
+        if (storage == null) {
+            throw new NullPointerException();
         }
-        this.width = width;
-        this.height = height;
-        b = new byte[width * height];
+        this.storage = storage;
+        width = storage.getWidth();
+        height = storage.getHeight();
     }
 
     /** Generates the maze. */
     public abstract void generate();
 
+    /**
+     * Reseeds the maze so that the next {@link #generate()} creates the same
+     * maze as a new instance constructed with the seed would. The storage and
+     * any scratch memory are kept, so generating many mazes of one size does
+     * not need a new instance for each.
+     *
+     * @param  seed the new seed
+     * @throws UnsupportedOperationException if the maze cannot be reseeded
+     */
+    public void reset(long seed) {
+        throw new UnsupportedOperationException("This maze cannot be reseeded");
+    }
+
+    /**
+     * Reseeds the maze and generates it.
+     *
+     * @param  seed the new seed
+     * @throws UnsupportedOperationException if the maze cannot be reseeded
+     * @see    #reset(long)
+     */
+    public void regenerate(long seed) {
+        reset(seed);
+        generate();
+    }
+
+    /**
+     * Carries out part of the generation of the maze, so that a large maze
+     * can be generated a little at a time, for instance once per frame. The
+     * first call starts a new generation, and the maze can be read between
+     * calls to watch it take shape. An operation is roughly the work of
+     * visiting or carving one node. Generators that cannot be paused do all
+     * the work in the first call.
+     *
+     * @param  maxOperations the most operations to carry out
+     * @return true if the maze is finished
+     * @throws IllegalArgumentException if maxOperations is not positive
+     */
+    public boolean step(int maxOperations) {
+        if (maxOperations <= 0) {
+            throw new IllegalArgumentException("Operation count must be positive");
+        }
+        if (!stepping) {
+            beginSteps();
+            stepping = true;
+        }
+        boolean done = runSteps(maxOperations);
+        ++modCount;
+        if (done) {
+            stepping = false;
+        }
+        return done;
+    }
+
+    /**
+     * Carries on generating the maze for about the specified time, which may
+     * be overrun by one batch of operations.
+     *
+     * @param  millis the time to spend, in milliseconds
+     * @return true if the maze is finished
+     * @see    #step(int)
+     */
+    public boolean stepFor(long millis) {
+        long deadline = System.currentTimeMillis() + millis;
+        do {
+            if (step(STEP_BATCH)) {
+                return true;
+            }
+        } while (System.currentTimeMillis() < deadline);
+        return false;
+    }
+
+    /**
+     * Returns whether no step-by-step generation is under way, either because
+     * none was started or because the last one finished.
+     */
+    public boolean isDone() {
+        return !stepping;
+    }
+
+    /**
+     * Prepares a step-by-step generation. Generators that can be paused
+     * override this together with {@link #runSteps(int)}.
+     */
+    protected void beginSteps() {
+    }
+
+    /**
+     * Carries out up to the specified number of operations and returns
+     * whether the maze is finished. The default generates the whole maze.
+     */
+    protected boolean runSteps(int maxOperations) {
+        generate();
+        return true;
+    }
+
+    /**
+     * Abandons a step-by-step generation under way. Generators call this when
+     * the maze is generated at once or reseeded.
+     */
+    protected void abortSteps() {
+        stepping = false;
+    }
+
     /** Returns the width of the maze. */
     public int getWidth() {
         return width;
@@ -49,6 +172,36 @@ public abstract class Maze implements Serializable {
         return height;
     }
 
+    /** Returns the storage holding the nodes of the maze. */
+    public MazeStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Returns a number that changes whenever walls are added or removed.
+     * Caches derived from the maze can compare it to tell if they are stale.
+     */
+    public int getModificationCount() {
+        return modCount;
+    }
+
+    /**
+     * Records a change of walls made directly through the storage, so that
+     * {@link #getModificationCount()} reflects it.
+     */
+    protected void markModified() {
+        ++modCount;
+    }
+
+    /**
+     * Frees memory that the storage holds for flag bits, if it keeps them
+     * apart from the walls. This should only be done once the maze has been
+     * generated.
+     */
+    public void releaseFlags() {
+        storage.releaseFlags();
+    }
+
     /**
      * Checks for the presence of a wall at a node.
      *
@@ -61,7 +214,7 @@ public abstract class Maze implements Serializable {
      */
     public boolean isWall(int x, int y, Direction d) {
         checkBounds(x, y);
-        return (b[y * width + x] & d.mask) != 0;
+        return (storage.getWalls(storage.index(x, y)) & d.mask) != 0;
     }
 
     /**
@@ -88,11 +241,14 @@ public abstract class Maze implements Serializable {
      */
     public void addWall(int x, int y, Direction d) {
         checkBounds(x, y);
-        b[y * width + x] |= d.mask;
+        int i = storage.index(x, y);
+        storage.setWalls(i, storage.getWalls(i) | d.mask);
+        ++modCount;
         int tx = x + d.dx;
         int ty = y + d.dy;
         if (isInBounds(tx, ty)) {
-            b[ty * width + tx] |= d.getReverse().mask;
+            i = storage.index(tx, ty);
+            storage.setWalls(i, storage.getWalls(i) | d.getReverse().mask);
         }
     }
 
@@ -110,19 +266,15 @@ public abstract class Maze implements Serializable {
 
     /** Puts walls on the border. */
     public void addBorder() {
-        for (int y = 0; y < height; ++y) {
-            b[y * width] |= Direction.WEST.mask;
-            b[(y + 1) * width - 1] |= Direction.EAST.mask;
-        }
-        for (int x = 0; x < width; ++x) {
-            b[x] |= Direction.NORTH.mask;
-            b[(height - 1) * width + x] |= Direction.SOUTH.mask;
-        }
+        storage.addBorder(Direction.NORTH.mask, Direction.EAST.mask,
+                Direction.SOUTH.mask, Direction.WEST.mask);
+        ++modCount;
     }
 
     /** Puts walls everywhere. */
     public void fill() {
-        Arrays.fill(b, (byte) WALL_MASK);
+        storage.fill(WALL_MASK);
+        ++modCount;
     }
 
     /**
@@ -136,11 +288,14 @@ public abstract class Maze implements Serializable {
      */
     public void removeWall(int x, int y, Direction d) {
         checkBounds(x, y);
-        b[y * width + x] &= ~d.mask;
+        int i = storage.index(x, y);
+        storage.setWalls(i, storage.getWalls(i) & ~d.mask);
+        ++modCount;
         int tx = x + d.dx;
         int ty = y + d.dy;
         if (isInBounds(tx, ty)) {
-            b[ty * width + tx] &= ~d.getReverse().mask;
+            i = storage.index(tx, ty);
+            storage.setWalls(i, storage.getWalls(i) & ~d.getReverse().mask);
         }
     }
 
@@ -158,13 +313,160 @@ public abstract class Maze implements Serializable {
 
     /** Removes all walls. */
     public void clear() {
-        Arrays.fill(b, (byte) 0);
+        storage.fill(0);
+        ++modCount;
+    }
+
+    /**
+     * Returns the number of node indices. This is the number of nodes unless
+     * the storage pads the maze.
+     */
+    public int getIndexCount() {
+        return storage.size();
+    }
+
+    /**
+     * Returns the index of a node for use with the index-based methods.
+     *
+     * @param  x the x-coordinate of the node
+     * @param  y the y-coordinate of the node
+     * @return the index of the node
+     * @throws OutOfBoundsException if (x, y) is out of bounds
+     */
+    public int indexOf(int x, int y) {
+        checkBounds(x, y);
+        return storage.index(x, y);
+    }
+
+    /** Returns the x-coordinate of the node at an index. */
+    public int getX(int index) {
+        return storage.getX(index);
+    }
+
+    /** Returns the y-coordinate of the node at an index. */
+    public int getY(int index) {
+        return storage.getY(index);
+    }
+
+    /**
+     * Returns the walls of a node as a combination of {@link Direction#mask}
+     * values. Unlike {@link #isWall(int, int, Direction)}, this does no bounds
+     * checking and is meant for loops that have already validated the index.
+     *
+     * @param  index the index of the node
+     * @return the wall bits of the node
+     */
+    public int wallMask(int index) {
+        return storage.getWalls(index);
+    }
+
+    /**
+     * Returns the index of the node next to another one. No bounds checking
+     * is done, so the neighbor must exist, as it does for any direction
+     * returned by {@link #openNeighbors(int)}.
+     *
+     * @param  index the index of the node
+     * @param  dir   the {@link Direction#ordinal() ordinal} of the direction
+     * @return the index of the neighbor
+     */
+    public int neighbor(int index, int dir) {
+        return storage.neighbor(index, dir);
+    }
+
+    /**
+     * Returns the directions in which a node can be left, as a combination
+     * of {@link Direction#mask} values. A direction is included if there is
+     * no wall on that side and the neighbor lies inside the maze. Bit i
+     * stands for the direction whose ordinal is i.
+     *
+     * @param  index the index of the node
+     * @return the open directions of the node
+     */
+    public int openNeighbors(int index) {
+        int open = ~storage.getWalls(index) & WALL_MASK;
+        return (open == 0) ? 0 : open & ~storage.getOuterSides(index);
+    }
+
+    /**
+     * Visits every node of the maze in index order.
+     *
+     * @param  visitor the visitor to call for each node
+     * @throws NullPointerException if visitor is null
+     */
+    public void forEachCell(CellVisitor visitor) {
+        if (visitor == null) {
+            throw new NullPointerException();
+        }
+        if (storage.getOrder() == CellOrder.ROW_MAJOR) {
+            int i = 0;
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x, ++i) {
+                    visitor.visit(i, x, y, storage.getWalls(i));
+                }
+            }
+            return;
+        }
+        int n = storage.size();
+        for (int i = 0; i < n; ++i) {
+            int x = storage.getX(i);
+            int y = storage.getY(i);
+            if (isInBounds(x, y)) {
+                visitor.visit(i, x, y, storage.getWalls(i));
+            }
+        }
+    }
+
+    /**
+     * Visits every node of a rectangular region row by row. The region is
+     * checked once up front.
+     *
+     * @param  x       the x-coordinate of the region's top-left node
+     * @param  y       the y-coordinate of the region's top-left node
+     * @param  width   the width of the region
+     * @param  height  the height of the region
+     * @param  visitor the visitor to call for each node
+     * @throws OutOfBoundsException if the region is not inside the maze
+     * @throws IllegalArgumentException if width or height is negative
+     * @throws NullPointerException if visitor is null
+     */
+    public void forEachCell(int x, int y, int width, int height, CellVisitor visitor) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Width and height must not be negative");
+        }
+        if (visitor == null) {
+            throw new NullPointerException();
+        }
+        if (width == 0 || height == 0) {
+            return;
+        }
+        checkBounds(x, y);
+        checkBounds(x + width - 1, y + height - 1);
+        for (int ty = y; ty < y + height; ++ty) {
+            for (int tx = x; tx < x + width; ++tx) {
+                int i = storage.index(tx, ty);
+                visitor.visit(i, tx, ty, storage.getWalls(i));
+            }
+        }
+    }
+
+    /**
+     * Replaces the walls of a whole row. The walls must agree with those of
+     * the neighboring rows; this is meant for generators that build rows
+     * themselves.
+     *
+     * @param y     the y-coordinate of the row
+     * @param walls the wall bits of the nodes in the row
+     */
+    protected void setRow(int y, byte[] walls) {
+        for (int x = 0; x < width; ++x) {
+            storage.setWalls(storage.index(x, y), walls[x]);
+        }
+        ++modCount;
     }
 
     /** Returns the flag bits for a node. */
     protected int getFlags(int x, int y) {
-        /* Mask is required b/c of sign extension from widening conversion. */
-        return (b[y * width + x] >> 4) & WALL_MASK;
+        return storage.getFlags(storage.index(x, y));
     }
 
     /** Returns the flag bits for a node. */
@@ -174,8 +476,7 @@ public abstract class Maze implements Serializable {
 
     /** Sets the flag bits for a node. */
     protected void setFlags(int x, int y, int flags) {
-        int i = y * width + x;
-        b[i] = (byte) ((b[i] & WALL_MASK) | (flags << 4));
+        storage.setFlags(storage.index(x, y), flags);
     }
 
     /** Sets the flag bits for a node. */
@@ -197,7 +498,7 @@ public abstract class Maze implements Serializable {
 
     /** Checks if a node is walled off from all directions. */
     protected boolean isUnvisited(int x, int y) {
-        return (b[y * width + x] & WALL_MASK) == WALL_MASK;
+        return storage.getWalls(storage.index(x, y)) == WALL_MASK;
     }
 
     @Override
@@ -206,7 +507,7 @@ public abstract class Maze implements Serializable {
         StringBuilder builder = new StringBuilder();
         builder.append("+");
         for (int x = 0; x < width; ++x) {
-            if ((b[x] & Direction.NORTH.mask) != 0) {
+            if ((storage.getWalls(storage.index(x, 0)) & Direction.NORTH.mask) != 0) {
                 builder.append("---+");
             } else {
                 builder.append("   +");
@@ -214,14 +515,13 @@ public abstract class Maze implements Serializable {
         }
         builder.append(lineSeparator);
         for (int y = 0; y < height; ++y) {
-            int yw = y * width;
-            if ((b[yw] & Direction.WEST.mask) != 0) {
+            if ((storage.getWalls(storage.index(0, y)) & Direction.WEST.mask) != 0) {
                 builder.append("|");
             } else {
                 builder.append(" ");
             }
             for (int x = 0; x < width; ++x) {
-                if ((b[yw + x] & Direction.EAST.mask) != 0) {
+                if ((storage.getWalls(storage.index(x, y)) & Direction.EAST.mask) != 0) {
                     builder.append("   |");
                 } else {
                     builder.append("    ");
@@ -230,7 +530,7 @@ public abstract class Maze implements Serializable {
             builder.append(lineSeparator);
             builder.append("+");
             for (int x = 0; x < width; ++x) {
-                if ((b[yw + x] & Direction.SOUTH.mask) != 0) {
+                if ((storage.getWalls(storage.index(x, y)) & Direction.SOUTH.mask) != 0) {
                     builder.append("---+");
                 } else {
                     builder.append("   +");
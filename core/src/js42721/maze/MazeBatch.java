@@ -0,0 +1,137 @@
+package js42721.maze;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Generates many mazes of one size on a thread pool. Each worker owns one
+ * maze, created once by the factory, and {@link Maze#regenerate(long)
+ * regenerates} it for each seed of its share, so the storage, random
+ * generator and scratch memory of the maze are reused rather than
+ * allocated per maze. The factory must therefore create mazes that can be
+ * reseeded.
+ * <p>
+ * Each call to {@link #generate(long[], MazeSink)} takes the workers' mazes
+ * for itself and puts them back when it is done. A call made while another
+ * is running creates mazes of its own, so a batch can be used by several
+ * threads at once.
+ */
+public class MazeBatch {
+    /** Receives each maze of a batch as soon as it is generated. */
+    public interface MazeSink {
+        /**
+         * Accepts a generated maze. The maze belongs to the worker, and is
+         * overwritten by the next one once this returns, so anything needed
+         * later must be copied out. This is called from the worker threads.
+         *
+         * @param index the index of the seed in the batch
+         * @param seed  the seed of the maze
+         * @param maze  the generated maze
+         */
+        void accept(int index, long seed, Maze maze);
+    }
+
+    private final int width;
+    private final int height;
+    private final MazeFactory factory;
+    private final int parallelism;
+    private final int workerCount;
+
+    /* The workers' mazes, or null while a call has taken them. */
+    private Maze[] idle;
+
+    /**
+     * Sets the size of the mazes, their generator and the number of threads.
+     *
+     * @param  width       the width of the mazes
+     * @param  height      the height of the mazes
+     * @param  factory     the generator of the mazes
+     * @param  parallelism the number of threads, or 0 for the common pool
+     * @throws IllegalArgumentException if width or height is not positive or
+     *         parallelism is negative
+     * @throws NullPointerException if factory is null
+     */
+    public MazeBatch(int width, int height, MazeFactory factory, int parallelism) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Width and height must be positive");
+        }
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("Parallelism must not be negative");
+        }
+        if (factory == null) {
+            throw new NullPointerException();
+        }
+        this.width = width;
+        this.height = height;
+        this.factory = factory;
+        this.parallelism = parallelism;
+        workerCount = (parallelism == 0) ? ForkJoinPool.getCommonPoolParallelism() : parallelism;
+        idle = new Maze[workerCount];
+    }
+
+    /** Returns the width of the mazes. */
+    public int getWidth() {
+        return width;
+    }
+
+    /** Returns the height of the mazes. */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Generates a maze for each seed and passes it to the sink, returning
+     * once all are done. The seeds are split into one contiguous share per
+     * worker, and each worker generates its share in order.
+     *
+     * @param  seeds the seeds of the mazes
+     * @param  sink  the receiver of the mazes
+     * @throws NullPointerException if seeds or sink is null
+     * @throws UnsupportedOperationException if the mazes cannot be reseeded
+     */
+    public void generate(long[] seeds, MazeSink sink) {
+        if (seeds == null || sink == null) {
+            throw new NullPointerException();
+        }
+        Maze[] workers = takeWorkers();
+        int shares = workers.length;
+        ForkJoinPool pool = Parallel.pool(parallelism);
+        try {
+            Parallel.forRange(pool, 0, shares, 1, (from, to) -> {
+                for (int w = from; w < to; ++w) {
+                    int start = (int) ((long) seeds.length * w / shares);
+                    int end = (int) ((long) seeds.length * (w + 1) / shares);
+                    for (int i = start; i < end; ++i) {
+                        sink.accept(i, seeds[i], generate(workers, w, seeds[i]));
+                    }
+                }
+            });
+        } finally {
+            Parallel.release(pool);
+            putWorkers(workers);
+        }
+    }
+
+    /** Takes the workers' mazes, or new slots if another call has them. */
+    private synchronized Maze[] takeWorkers() {
+        Maze[] workers = (idle != null) ? idle : new Maze[workerCount];
+        idle = null;
+        return workers;
+    }
+
+    private synchronized void putWorkers(Maze[] workers) {
+        idle = workers;
+    }
+
+    /** Generates a maze with a worker, creating the worker's maze if needed. */
+    private Maze generate(Maze[] workers, int worker, long seed) {
+        Maze maze = workers[worker];
+        if (maze == null) {
+            maze = factory.create(width, height, seed);
+            workers[worker] = maze;
+            maze.generate();
+        } else {
+            maze.regenerate(seed);
+        }
+        return maze;
+    }
+}
@@ -0,0 +1,19 @@
+package js42721.maze;
+
+import java.io.Serializable;
+
+/**
+ * Creates ungenerated mazes of a given size and seed. The seeded constructor
+ * of any generator fits, for instance {@code Wilsons::new}.
+ */
+public interface MazeFactory extends Serializable {
+    /**
+     * Returns an ungenerated maze.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  seed   the seed of the maze
+     * @return the maze
+     */
+    Maze create(int width, int height, long seed);
+}
@@ -0,0 +1,87 @@
+package js42721.maze;
+
+import java.io.Serializable;
+
+/**
+ * The source of randomness for maze generators. Unlike {@link
+ * java.util.Random}, an instance is not meant to be shared between threads,
+ * so it needs no synchronization. Instead, {@link #split()} derives an
+ * independent generator whose sequence depends only on the state of this
+ * one, which keeps parallel generation reproducible from a single seed.
+ */
+public abstract class MazeRandom implements Serializable {
+    private static final long serialVersionUID = -6395218337006187113L;
+
+    private static long seedUniquifier = 0x2545f4914f6cdd1dL;
+
+    /**
+     * Returns a generator of the default implementation.
+     *
+     * @param  seed the seed
+     * @return a new generator
+     */
+    public static MazeRandom create(long seed) {
+        return new SplitMixRandom(seed);
+    }
+
+    /** Returns a seed that is very likely to differ from any other call. */
+    public static synchronized long newSeed() {
+        seedUniquifier = seedUniquifier * 0x5deece66dL + 0xbL;
+        return seedUniquifier ^ System.currentTimeMillis() ^ ((long) System.identityHashCode(new Object()) << 32);
+    }
+
+    /**
+     * Restarts the sequence from a seed, as if the generator had been
+     * created with it. This lets a generator be reused without allocating.
+     *
+     * @param  seed the seed
+     * @throws UnsupportedOperationException if the generator cannot be
+     *         reseeded, which is never the case for one returned by
+     *         {@link #create(long)}
+     */
+    public void setSeed(long seed) {
+        throw new UnsupportedOperationException("This generator cannot be reseeded");
+    }
+
+    /** Returns the next pseudorandom 64-bit value. */
+    public abstract long nextLong();
+
+    /**
+     * Returns a new generator that is statistically independent from this
+     * one. Its sequence depends only on the current state of this generator.
+     */
+    public abstract MazeRandom split();
+
+    /** Returns the next pseudorandom 32-bit value. */
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    /**
+     * Returns a pseudorandom value between 0 (inclusive) and bound
+     * (exclusive), with every value equally likely.
+     *
+     * @param  bound the upper bound
+     * @return the next value
+     * @throws IllegalArgumentException if bound is not positive
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("Bound must be positive");
+        }
+        /* Multiplies instead of dividing and rejects the few biased values. */
+        long m = (nextLong() >>> 32) * bound;
+        if ((m & 0xffffffffL) < bound) {
+            long threshold = (0x100000000L - bound) % bound;
+            while ((m & 0xffffffffL) < threshold) {
+                m = (nextLong() >>> 32) * bound;
+            }
+        }
+        return (int) (m >>> 32);
+    }
+
+    /** Returns the next pseudorandom boolean. */
+    public boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+}
@@ -0,0 +1,67 @@
+package js42721.maze;
+
+import java.io.Serializable;
+
+import js42721.maze.storage.ViewStorage;
+
+/**
+ * A read-only window onto a rectangular region of another maze, in local
+ * coordinates. The nodes are not copied, so a view of a huge maze is cheap
+ * and always reflects the maze's current walls. Walls on the edge of the
+ * window are those of the underlying maze: where a passage leaves the
+ * window, the view shows no wall. A view can be wrapped by {@link TileMaze}.
+ * Methods that modify the maze throw {@link UnsupportedOperationException}.
+ */
+public class MazeView extends Maze implements Serializable {
+    private static final long serialVersionUID = -1326005745283902547L;
+
+    private final Maze maze;
+
+    /**
+     * Creates a view of a region of a maze.
+     *
+     * @param  maze   the maze to look into
+     * @param  x      the x-coordinate of the region's top-left node
+     * @param  y      the y-coordinate of the region's top-left node
+     * @param  width  the width of the region
+     * @param  height the height of the region
+     * @throws IllegalArgumentException if the region is empty or does not fit
+     *         in the maze
+     * @throws NullPointerException if maze is null
+     */
+    public MazeView(Maze maze, int x, int y, int width, int height) {
+        super(new ViewStorage(maze.getStorage(), x, y, width, height));
+        this.maze = maze;
+    }
+
+    /** Returns the maze this view looks into. */
+    public Maze getMaze() {
+        return maze;
+    }
+
+    /** Returns the x-coordinate of the view's top-left node in the maze. */
+    public int getOffsetX() {
+        return ((ViewStorage) getStorage()).getOffsetX();
+    }
+
+    /** Returns the y-coordinate of the view's top-left node in the maze. */
+    public int getOffsetY() {
+        return ((ViewStorage) getStorage()).getOffsetY();
+    }
+
+    /** Returns the modification count of the underlying maze. */
+    @Override
+    public int getModificationCount() {
+        return maze.getModificationCount();
+    }
+
+    /**
+     * Not supported.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void generate() {
+        throw new UnsupportedOperationException("Views cannot be generated");
+    }
+}
@@ -0,0 +1,274 @@
+package js42721.maze;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import js42721.maze.coordinates.Node;
+import js42721.maze.coordinates.Point;
+import js42721.maze.storage.MazeStorage;
+
+/**
+ * Implements the origin shift algorithm, which keeps a perfect maze changing
+ * one shift at a time. The maze is stored as a tree directed toward a root
+ * node: the flag bits of every other node hold the direction of its parent.
+ * Each {@link #shift()} points the root at a random neighbor, which becomes the
+ * new root and drops the edge to its own parent. At most one wall is removed
+ * and one added per shift, and the maze stays perfect throughout.
+ */
+public class OriginShift extends Maze implements Serializable {
+    private static final long serialVersionUID = 2467402155308457917L;
+
+    /* The first two bits hold the direction of the parent. */
+    private static final int PARENT_MASK = 3;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private long seed;
+    private final MazeRandom rnd;
+
+    /* The index of the root, or -1 until the maze is first generated. */
+    private int root = -1;
+    private transient long mixingShifts;
+    private transient List<WallChangeListener> listeners;
+
+    /**
+     * Sets the dimensions of the maze.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public OriginShift(int width, int height) {
+        this(width, height, MazeRandom.newSeed());
+    }
+
+    /**
+     * Sets the dimensions of the maze and the seed of its random generator.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  seed   the seed of the random generator
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public OriginShift(int width, int height, long seed) {
+        super(width, height);
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze.
+     *
+     * @param  storage the storage for the maze nodes
+     * @throws NullPointerException if storage is null
+     */
+    public OriginShift(MazeStorage storage) {
+        this(storage, MazeRandom.newSeed());
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze and sets the seed
+     * of its random generator.
+     *
+     * @param  storage the storage for the maze nodes
+     * @param  seed    the seed of the random generator
+     * @throws NullPointerException if storage is null
+     */
+    public OriginShift(MazeStorage storage, long seed) {
+        super(storage);
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /** Returns the seed of the random generator. */
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public void reset(long seed) {
+        abortSteps();
+        this.seed = seed;
+        rnd.setSeed(seed);
+    }
+
+    /**
+     * Starts from a maze of rows leading east into a last column leading
+     * south, and shifts the origin ten times per node to mix it. No events
+     * are sent while generating.
+     */
+    @Override
+    public void generate() {
+        abortSteps();
+        beginSteps();
+        runSteps(Integer.MAX_VALUE);
+        markModified();
+    }
+
+    @Override
+    protected void beginSteps() {
+        fill();
+        MazeStorage storage = getStorage();
+        int width = getWidth();
+        int height = getHeight();
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int i = storage.index(x, y);
+                int walls = MazeStorage.WALL_MASK;
+                if (x < width - 1) {
+                    walls &= ~Direction.EAST.mask;
+                    storage.setFlags(i, Direction.EAST.ordinal());
+                } else if (y < height - 1) {
+                    walls &= ~Direction.SOUTH.mask;
+                    storage.setFlags(i, Direction.SOUTH.ordinal());
+                }
+                if (x > 0) {
+                    walls &= ~Direction.WEST.mask;
+                }
+                if (x == width - 1 && y > 0) {
+                    walls &= ~Direction.NORTH.mask;
+                }
+                storage.setWalls(i, walls);
+            }
+        }
+        root = storage.index(width - 1, height - 1);
+        mixingShifts = 10L * width * height;
+    }
+
+    @Override
+    protected boolean runSteps(int maxOperations) {
+        for (int i = 0; i < maxOperations && mixingShifts > 0; ++i, --mixingShifts) {
+            shiftOrigin(false);
+        }
+        return mixingShifts == 0;
+    }
+
+    /**
+     * Moves the root to a random neighbor, changing at most two walls, and
+     * tells the listeners about them. The shifts work on the tree built by
+     * generating the maze, so a maze that has not been generated, or begun
+     * to be generated step by step, is generated first.
+     */
+    public void shift() {
+        ensureTree();
+        shiftOrigin(true);
+    }
+
+    /**
+     * Shifts the origin a number of times, generating the maze first if it
+     * has not been generated.
+     *
+     * @param  count the number of shifts
+     * @throws IllegalArgumentException if count is negative
+     */
+    public void shift(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Shift count must not be negative");
+        }
+        ensureTree();
+        for (int i = 0; i < count; ++i) {
+            shiftOrigin(true);
+        }
+    }
+
+    /** Returns the root of the tree, generating the maze first if it has not been generated. */
+    public Point getRoot() {
+        ensureTree();
+        return new Node(getX(root), getY(root));
+    }
+
+    private void ensureTree() {
+        if (root < 0) {
+            generate();
+        }
+    }
+
+    /**
+     * Adds a listener for the walls changed by {@link #shift()}.
+     *
+     * @param  listener the listener to add
+     * @throws NullPointerException if listener is null
+     */
+    public void addWallChangeListener(WallChangeListener listener) {
+        if (listener == null) {
+            throw new NullPointerException();
+        }
+        if (listeners == null) {
+            listeners = new ArrayList<WallChangeListener>();
+        }
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with {@link #addWallChangeListener}.
+     *
+     * @param  listener the listener to remove
+     */
+    public void removeWallChangeListener(WallChangeListener listener) {
+        if (listeners != null) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Does nothing: the flag bits hold the tree that the shifts work on, so
+     * they cannot be released.
+     */
+    @Override
+    public void releaseFlags() {
+    }
+
+    /**
+     * Shifts the origin and returns whether any walls changed. A shift that
+     * notifies the listeners counts as a modification before they are told,
+     * so that they see the maze as it now is.
+     */
+    private boolean shiftOrigin(boolean notify) {
+        MazeStorage storage = getStorage();
+        int moves = ~storage.getOuterSides(root) & MazeStorage.WALL_MASK;
+        if (moves == 0) {
+            return false;
+        }
+        for (int k = rnd.nextInt(Integer.bitCount(moves)); k > 0; --k) {
+            moves &= moves - 1;
+        }
+        int d = Integer.numberOfTrailingZeros(moves);
+        int next = storage.neighbor(root, d);
+        int parentDirection = storage.getFlags(next) & PARENT_MASK;
+        int parent = storage.neighbor(next, parentDirection);
+
+        /* Points the root at its neighbor, which becomes the new root. */
+        int oldRoot = root;
+        storage.setFlags(oldRoot, d);
+        root = next;
+        if (parent == oldRoot) {
+            return false; // The edge only changed direction.
+        }
+
+        /* Opens the new edge and closes the one to the old parent. */
+        setWall(storage, oldRoot, next, d, false);
+        setWall(storage, next, parent, parentDirection, true);
+        if (notify) {
+            markModified();
+        }
+        if (notify && listeners != null) {
+            for (WallChangeListener listener : listeners) {
+                listener.wallChanged(getX(oldRoot), getY(oldRoot), DIRECTIONS[d], false);
+                listener.wallChanged(getX(next), getY(next), DIRECTIONS[parentDirection], true);
+            }
+        }
+        return true;
+    }
+
+    private static void setWall(MazeStorage storage, int u, int v, int d, boolean wall) {
+        int reverse = 1 << ((d + 2) & 3);
+        if (wall) {
+            storage.setWalls(u, storage.getWalls(u) | (1 << d));
+            storage.setWalls(v, storage.getWalls(v) | reverse);
+        } else {
+            storage.setWalls(u, storage.getWalls(u) & ~(1 << d));
+            storage.setWalls(v, storage.getWalls(v) & ~reverse);
+        }
+    }
+}
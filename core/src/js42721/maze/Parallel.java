@@ -0,0 +1,97 @@
+package js42721.maze;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Runs loops over integer ranges on a fork/join pool. */
+public final class Parallel {
+    private Parallel() {
+    }
+
+    /** The body of a parallel loop, called with disjoint subranges. */
+    public interface RangeBody {
+        /**
+         * Processes a subrange.
+         *
+         * @param from the first index (inclusive)
+         * @param to   the last index (exclusive)
+         */
+        void run(int from, int to);
+    }
+
+    /**
+     * Splits a range into pieces of at most grain indices and runs the body
+     * on them in parallel, returning once all pieces are done.
+     *
+     * @param  pool  the pool to run on
+     * @param  from  the first index (inclusive)
+     * @param  to    the last index (exclusive)
+     * @param  grain the largest piece that is not split further
+     * @param  body  the loop body
+     * @throws IllegalArgumentException if grain is not positive
+     * @throws NullPointerException if pool or body is null
+     */
+    public static void forRange(ForkJoinPool pool, int from, int to, int grain, RangeBody body) {
+        if (grain <= 0) {
+            throw new IllegalArgumentException("Grain must be positive");
+        }
+        if (body == null) {
+            throw new NullPointerException();
+        }
+        if (to - from <= grain) {
+            if (from < to) {
+                body.run(from, to);
+            }
+            return;
+        }
+        pool.invoke(new RangeTask(from, to, grain, body));
+    }
+
+    /**
+     * Returns the pool to use for a parallelism setting: the common pool if
+     * parallelism is 0, otherwise a new pool that the caller must shut down.
+     *
+     * @param  parallelism the number of threads, or 0 for the common pool
+     * @return the pool
+     * @throws IllegalArgumentException if parallelism is negative
+     */
+    public static ForkJoinPool pool(int parallelism) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("Parallelism must not be negative");
+        }
+        return (parallelism == 0) ? ForkJoinPool.commonPool() : new ForkJoinPool(parallelism);
+    }
+
+    /** Shuts down a pool returned by {@link #pool(int)} unless it is shared. */
+    public static void release(ForkJoinPool pool) {
+        if (pool != ForkJoinPool.commonPool()) {
+            pool.shutdown();
+        }
+    }
+
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = -2395960046069315481L;
+
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final RangeBody body;
+
+        RangeTask(int from, int to, int grain, RangeBody body) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                body.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeTask(from, mid, grain, body), new RangeTask(mid, to, grain, body));
+        }
+    }
+}
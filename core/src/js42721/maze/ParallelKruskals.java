@@ -0,0 +1,345 @@
+package js42721.maze;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import js42721.maze.storage.MazeStorage;
+
+/**
+ * Implements a parallel version of randomized Kruskal's algorithm. Rather
+ * than shuffling the edges, every edge gets a pseudorandom weight hashed from
+ * the seed and the edge, with ties broken by the edge itself. Since the
+ * weights are distinct, the minimum spanning tree is unique: the maze depends
+ * only on the seed, however many threads build it.
+ * <p>
+ * The edges are sorted by weight with a parallel bucket sort. They are then
+ * taken in blocks: threads first drop the edges of a block whose ends are
+ * already connected, which only reads the disjoint set forest, and a single
+ * thread merges the rest in order. Most edges are dropped this way late in
+ * the run. Carving the walls is also done in parallel when the storage
+ * {@link MazeStorage#supportsConcurrentWrites() allows it}.
+ */
+public class ParallelKruskals extends Maze implements Serializable {
+    private static final long serialVersionUID = 3405281693140786252L;
+
+    private static final int EAST_BIT = 0x80000000;
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final int GRAIN = 1 << 14;
+
+    private long seed;
+    private int parallelism;
+
+    /**
+     * Sets the dimensions of the maze.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public ParallelKruskals(int width, int height) {
+        this(width, height, MazeRandom.newSeed());
+    }
+
+    /**
+     * Sets the dimensions of the maze and the seed of its edge weights.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  seed   the seed of the edge weights
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public ParallelKruskals(int width, int height, long seed) {
+        super(width, height);
+        this.seed = seed;
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze.
+     *
+     * @param  storage the storage for the maze nodes
+     * @throws NullPointerException if storage is null
+     */
+    public ParallelKruskals(MazeStorage storage) {
+        this(storage, MazeRandom.newSeed());
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze and sets the seed
+     * of its edge weights.
+     *
+     * @param  storage the storage for the maze nodes
+     * @param  seed    the seed of the edge weights
+     * @throws NullPointerException if storage is null
+     */
+    public ParallelKruskals(MazeStorage storage, long seed) {
+        super(storage);
+        this.seed = seed;
+    }
+
+    /** Returns the seed of the edge weights. */
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public void reset(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the number of threads to generate with. The result does not
+     * depend on it.
+     *
+     * @param  parallelism the number of threads, or 0 for the common pool
+     * @throws IllegalArgumentException if parallelism is negative
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("Parallelism must not be negative");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /** Returns the number of threads, or 0 for the common pool. */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public void generate() {
+        ForkJoinPool pool = Parallel.pool(parallelism);
+        try {
+            fill();
+            parallelKruskals(pool);
+        } finally {
+            Parallel.release(pool);
+        }
+    }
+
+    private void parallelKruskals(ForkJoinPool pool) {
+        int width = getWidth();
+        int height = getHeight();
+        int nodes = width * height;
+        int edgeCount = 2 * nodes - width - height;
+
+        /* Sorts the edges by weight. */
+        int[] edges = sortEdges(pool, edgeCount);
+
+        /* Creates a disjoint set forest with a set for each node. */
+        int[] dsf = new int[nodes];
+        Arrays.fill(dsf, -1);
+
+        /* Tree edges, two bits per node: east and south. */
+        long[] tree = new long[(int) ((2L * nodes + 63) >>> 6)];
+
+        boolean[] keep = new boolean[Math.min(BLOCK_SIZE, Math.max(edgeCount, 1))];
+        int merged = 0;
+        for (int start = 0; start < edgeCount && merged < nodes - 1; start += BLOCK_SIZE) {
+            final int blockStart = start;
+            int blockEnd = Math.min(edgeCount, start + BLOCK_SIZE);
+
+            /* Drops edges whose ends are already connected. */
+            Parallel.forRange(pool, blockStart, blockEnd, GRAIN, (from, to) -> {
+                for (int i = from; i < to; ++i) {
+                    int e = edges[i];
+                    int u = e & ~EAST_BIT;
+                    int v = (e < 0) ? u + 1 : u + width;
+                    keep[i - blockStart] = find(dsf, u) != find(dsf, v);
+                }
+            });
+
+            /* Merges the remaining edges in weight order. */
+            for (int i = blockStart; i < blockEnd; ++i) {
+                if (!keep[i - blockStart]) {
+                    continue;
+                }
+                int e = edges[i];
+                int u = e & ~EAST_BIT;
+                int v = (e < 0) ? u + 1 : u + width;
+                if (union(dsf, u, v)) {
+                    long bit = 2L * u + ((e < 0) ? 0 : 1);
+                    tree[(int) (bit >>> 6)] |= 1L << bit;
+                    ++merged;
+                }
+            }
+        }
+
+        carve(pool, tree);
+    }
+
+    /**
+     * Returns the edges sorted by weight. The edges are bucketed by the top
+     * bits of their weight, in parallel over rows, and each bucket is then
+     * sorted on its own.
+     */
+    private int[] sortEdges(ForkJoinPool pool, int edgeCount) {
+        int width = getWidth();
+        int height = getHeight();
+        int bucketBits = Math.max(0, Math.min(16, 31 - Integer.numberOfLeadingZeros(Math.max(edgeCount, 1)) - 10));
+        int buckets = 1 << bucketBits;
+        int chunks = Math.min(height, 4 * Math.max(1, pool.getParallelism()));
+        int rowsPerChunk = (height + chunks - 1) / chunks;
+        chunks = (height + rowsPerChunk - 1) / rowsPerChunk;
+        int[][] counts = new int[chunks][buckets];
+
+        /* Counts the edges of each chunk of rows per bucket. */
+        Parallel.forRange(pool, 0, chunks, 1, (from, to) -> {
+            for (int c = from; c < to; ++c) {
+                int[] count = counts[c];
+                int yEnd = Math.min(height, (c + 1) * rowsPerChunk);
+                for (int y = c * rowsPerChunk; y < yEnd; ++y) {
+                    for (int x = 0; x < width; ++x) {
+                        int u = y * width + x;
+                        if (x < width - 1) {
+                            ++count[bucket(u | EAST_BIT, bucketBits)];
+                        }
+                        if (y < height - 1) {
+                            ++count[bucket(u, bucketBits)];
+                        }
+                    }
+                }
+            }
+        });
+
+        /* Turns the counts into write positions. */
+        int[] bucketStart = new int[buckets + 1];
+        int position = 0;
+        for (int b = 0; b < buckets; ++b) {
+            bucketStart[b] = position;
+            for (int c = 0; c < chunks; ++c) {
+                int n = counts[c][b];
+                counts[c][b] = position;
+                position += n;
+            }
+        }
+        bucketStart[buckets] = position;
+
+        /* Scatters the edges into their buckets. */
+        int[] edges = new int[edgeCount];
+        Parallel.forRange(pool, 0, chunks, 1, (from, to) -> {
+            for (int c = from; c < to; ++c) {
+                int[] next = counts[c];
+                int yEnd = Math.min(height, (c + 1) * rowsPerChunk);
+                for (int y = c * rowsPerChunk; y < yEnd; ++y) {
+                    for (int x = 0; x < width; ++x) {
+                        int u = y * width + x;
+                        if (x < width - 1) {
+                            int e = u | EAST_BIT;
+                            edges[next[bucket(e, bucketBits)]++] = e;
+                        }
+                        if (y < height - 1) {
+                            edges[next[bucket(u, bucketBits)]++] = u;
+                        }
+                    }
+                }
+            }
+        });
+
+        /* Sorts each bucket by weight, then by edge. */
+        Parallel.forRange(pool, 0, buckets, Math.max(1, buckets / (8 * Math.max(1, pool.getParallelism()))), (from, to) -> {
+            long[] keys = new long[0];
+            for (int b = from; b < to; ++b) {
+                int lo = bucketStart[b];
+                int n = bucketStart[b + 1] - lo;
+                if (keys.length < n) {
+                    keys = new long[n];
+                }
+                for (int i = 0; i < n; ++i) {
+                    int e = edges[lo + i];
+                    keys[i] = ((long) weight(e) << 32) | (e & 0xffffffffL);
+                }
+                Arrays.sort(keys, 0, n);
+                for (int i = 0; i < n; ++i) {
+                    edges[lo + i] = (int) keys[i];
+                }
+            }
+        });
+        return edges;
+    }
+
+    /** Removes the walls crossed by the tree edges. */
+    private void carve(ForkJoinPool pool, long[] tree) {
+        int width = getWidth();
+        int height = getHeight();
+        MazeStorage storage = getStorage();
+        Parallel.RangeBody rows = (from, to) -> {
+            for (int y = from; y < to; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    long u = (long) y * width + x;
+                    int walls = 0xf;
+                    if (isSet(tree, 2 * u)) {
+                        walls &= ~Direction.EAST.mask;
+                    }
+                    if (isSet(tree, 2 * u + 1)) {
+                        walls &= ~Direction.SOUTH.mask;
+                    }
+                    if (x > 0 && isSet(tree, 2 * (u - 1))) {
+                        walls &= ~Direction.WEST.mask;
+                    }
+                    if (y > 0 && isSet(tree, 2 * (u - width) + 1)) {
+                        walls &= ~Direction.NORTH.mask;
+                    }
+                    storage.setWalls(storage.index(x, y), walls);
+                }
+            }
+        };
+        if (storage.supportsConcurrentWrites()) {
+            Parallel.forRange(pool, 0, height, Math.max(1, GRAIN / width), rows);
+        } else {
+            rows.run(0, height);
+        }
+        markModified();
+    }
+
+    /** Returns the weight of an edge, a hash of the seed and the edge. */
+    private int weight(int e) {
+        return (int) (SplitMixRandom.mix64(seed + (e & 0xffffffffL) * 0x9e3779b97f4a7c15L) >>> 32);
+    }
+
+    private int bucket(int e, int bucketBits) {
+        return (bucketBits == 0) ? 0 : weight(e) >>> (32 - bucketBits);
+    }
+
+    private static boolean isSet(long[] bits, long bit) {
+        return (bits[(int) (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    /** Finds the root of a node without compressing the path. */
+    private static int find(int[] a, int x) {
+        while (a[x] >= 0) {
+            x = a[x];
+        }
+        return x;
+    }
+
+    /** Unions two sets by rank, compressing the paths it walks. */
+    private static boolean union(int[] a, int x, int y) {
+        int rootX = compress(a, x);
+        int rootY = compress(a, y);
+        if (rootX == rootY) {
+            return false;
+        }
+        int rankX = a[rootX];
+        int rankY = a[rootY];
+        if (rankX > rankY) {
+            a[rootX] = rootY;
+        } else {
+            if (rankX == rankY) {
+                --a[rootX];
+            }
+            a[rootY] = rootX;
+        }
+        return true;
+    }
+
+    private static int compress(int[] a, int x) {
+        int root = find(a, x);
+        while (x != root) {
+            int next = a[x];
+            a[x] = root;
+            x = next;
+        }
+        return root;
+    }
+}
@@ -0,0 +1,235 @@
+package js42721.maze;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import js42721.maze.storage.MazeStorage;
+
+/**
+ * Implements the recursive division algorithm on a fork/join pool. Once an
+ * area is divided, its two halves never touch again, so large areas are
+ * divided by separate tasks and small ones by a loop over an explicit stack,
+ * which keeps thin mazes from overflowing the call stack.
+ * <p>
+ * Every forked area gets its own random generator, split from the one of the
+ * area it was divided from, so the maze depends only on the seed. Work is
+ * only spread over several threads if the storage
+ * {@link MazeStorage#supportsConcurrentWrites() allows it}.
+ */
+public class ParallelRecursiveDivider extends Maze implements Serializable {
+    private static final long serialVersionUID = -4730905617728203954L;
+
+    /** The largest area that is divided without forking. */
+    private static final int THRESHOLD = 1 << 16;
+
+    private long seed;
+    private int parallelism;
+
+    /**
+     * Sets the dimensions of the maze.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public ParallelRecursiveDivider(int width, int height) {
+        this(width, height, MazeRandom.newSeed());
+    }
+
+    /**
+     * Sets the dimensions of the maze and the seed of its random generator.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  seed   the seed of the random generator
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public ParallelRecursiveDivider(int width, int height, long seed) {
+        super(width, height);
+        this.seed = seed;
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze.
+     *
+     * @param  storage the storage for the maze nodes
+     * @throws NullPointerException if storage is null
+     */
+    public ParallelRecursiveDivider(MazeStorage storage) {
+        this(storage, MazeRandom.newSeed());
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze and sets the seed
+     * of its random generator.
+     *
+     * @param  storage the storage for the maze nodes
+     * @param  seed    the seed of the random generator
+     * @throws NullPointerException if storage is null
+     */
+    public ParallelRecursiveDivider(MazeStorage storage, long seed) {
+        super(storage);
+        this.seed = seed;
+    }
+
+    /** Returns the seed of the random generator. */
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public void reset(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the number of threads to generate with. The result does not
+     * depend on it.
+     *
+     * @param  parallelism the number of threads, or 0 for the common pool
+     * @throws IllegalArgumentException if parallelism is negative
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("Parallelism must not be negative");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /** Returns the number of threads, or 0 for the common pool. */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public void generate() {
+        clear();
+        addBorder();
+        ForkJoinPool pool = Parallel.pool(getStorage().supportsConcurrentWrites() ? parallelism : 1);
+        try {
+            pool.invoke(new DivideTask(0, 0, getWidth(), getHeight(), MazeRandom.create(seed)));
+        } finally {
+            Parallel.release(pool);
+        }
+        markModified();
+    }
+
+    /** Divides an area, forking while it is larger than the threshold. */
+    private class DivideTask extends RecursiveAction {
+        private static final long serialVersionUID = 5514290372606468319L;
+
+        private final int x, y, width, height;
+        private final MazeRandom rnd;
+
+        DivideTask(int x, int y, int width, int height, MazeRandom rnd) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.rnd = rnd;
+        }
+
+        @Override
+        protected void compute() {
+            if ((long) width * height <= THRESHOLD) {
+                divideAll(x, y, width, height, rnd);
+                return;
+            }
+            int[] parts = new int[8];
+            if (divide(x, y, width, height, rnd, parts, 0)) {
+                invokeAll(new DivideTask(parts[0], parts[1], parts[2], parts[3], rnd.split()),
+                          new DivideTask(parts[4], parts[5], parts[6], parts[7], rnd));
+            }
+        }
+    }
+
+    /** Divides an area completely, using a stack instead of recursion. */
+    private void divideAll(int x, int y, int width, int height, MazeRandom rnd) {
+        int[] stack = new int[64];
+        stack[0] = x;
+        stack[1] = y;
+        stack[2] = width;
+        stack[3] = height;
+        int size = 4;
+        while (size > 0) {
+            size -= 4;
+            if (stack.length < size + 8) {
+                stack = Arrays.copyOf(stack, 2 * stack.length);
+            }
+            /*
+             * The halves are stored in place of the area, the second half on
+             * the bottom, so the first one is divided next as it would be by
+             * recursion.
+             */
+            if (divide(stack[size], stack[size + 1], stack[size + 2], stack[size + 3], rnd, stack, size)) {
+                for (int i = 0; i < 4; ++i) {
+                    int tmp = stack[size + i];
+                    stack[size + i] = stack[size + 4 + i];
+                    stack[size + 4 + i] = tmp;
+                }
+                size += 8;
+            }
+        }
+    }
+
+    /**
+     * Places a wall with an opening across an area. Returns false if the area
+     * is too small to divide, otherwise stores the two halves as x, y, width
+     * and height at the specified offset. Only nodes inside the area are
+     * written.
+     */
+    private boolean divide(int x, int y, int width, int height, MazeRandom rnd, int[] out, int offset) {
+        if (width <= 1 || height <= 1) {
+            return false;
+        }
+        MazeStorage storage = getStorage();
+        int tx = x + width, ty = y + height;
+        if (isHorizontal(width, height, rnd)) {
+            int wy = rnd.nextInt((ty - 1) - y) + y; // Picks a random location.
+            int door = rnd.nextInt(tx - x) + x; // Picks the opening.
+            for (int wx = x; wx < tx; ++wx) { // Places the wall.
+                if (wx != door) {
+                    addWall(storage, storage.index(wx, wy), storage.index(wx, wy + 1), Direction.SOUTH);
+                }
+            }
+            set(out, offset, x, y, width, wy + 1 - y);
+            set(out, offset + 4, x, wy + 1, width, ty - wy - 1);
+        } else { // Perpendicular version of the above.
+            int wx = rnd.nextInt((tx - 1) - x) + x;
+            int door = rnd.nextInt(ty - y) + y;
+            for (int wy = y; wy < ty; ++wy) {
+                if (wy != door) {
+                    addWall(storage, storage.index(wx, wy), storage.index(wx + 1, wy), Direction.EAST);
+                }
+            }
+            set(out, offset, x, y, wx + 1 - x, height);
+            set(out, offset + 4, wx + 1, y, tx - wx - 1, height);
+        }
+        return true;
+    }
+
+    private static void addWall(MazeStorage storage, int u, int v, Direction d) {
+        storage.setWalls(u, storage.getWalls(u) | d.mask);
+        storage.setWalls(v, storage.getWalls(v) | d.getReverse().mask);
+    }
+
+    private static void set(int[] out, int offset, int x, int y, int width, int height) {
+        out[offset] = x;
+        out[offset + 1] = y;
+        out[offset + 2] = width;
+        out[offset + 3] = height;
+    }
+
+    /** Chooses wall orientation based on the dimensions of an area. */
+    private static boolean isHorizontal(int width, int height, MazeRandom rnd) {
+        if (width > 2 * height) {
+            return false;
+        }
+        if (height > 2 * width) {
+            return true;
+        }
+        return rnd.nextBoolean();
+    }
+}
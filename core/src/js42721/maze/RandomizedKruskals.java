@@ -2,17 +2,38 @@ package js42721.maze;
 
 import java.io.Serializable;
 import java.util.Arrays;
-import java.util.Random;
+
+import js42721.maze.storage.MazeStorage;
 
 /**
  * Implements a randomized version of Kruskal's algorithm. It is essentially
  * Kruskal's algorithm with random edge weights so its result is a minimum
  * spanning tree for an equally weighted graph.
+ * <p>
+ * By default the edges are listed and shuffled. In the
+ * {@link #setImplicitOrder(boolean) implicit order} mode they are instead
+ * visited in the order of a seeded permutation of the edge indices, which
+ * needs no edge list and stops as soon as the spanning tree is complete.
  */
 public class RandomizedKruskals extends Maze implements Serializable {
-    private static final long serialVersionUID = 612546716632291472L;
+    private static final long serialVersionUID = 5317995905576685315L;
+
+    private long seed;
+    private final MazeRandom rnd;
+    private boolean implicitOrder;
 
-    private final Random rnd;
+    /*
+     * The state of a generation, kept between steps. The edge list and the
+     * forest are also kept between runs so that regenerating does not
+     * allocate.
+     */
+    private transient int[] edges;
+    private transient DisjointSetForest dsf;
+    private transient EdgePermutation permutation;
+    private transient long edgeCount;
+    private transient int shuffled;
+    private transient long position;
+    private transient int merged;
 
     /**
      * Sets the dimensions of the maze.
@@ -22,35 +43,150 @@ public class RandomizedKruskals extends Maze implements Serializable {
      * @throws IllegalArgumentException if width or height is not positive
      */
     public RandomizedKruskals(int width, int height) {
+        this(width, height, MazeRandom.newSeed());
+    }
+
+    /**
+     * Sets the dimensions of the maze and the seed of its random generator.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  seed   the seed of the random generator
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public RandomizedKruskals(int width, int height, long seed) {
         super(width, height);
-        rnd = new Random();
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze.
+     *
+     * @param  storage the storage for the maze nodes
+     * @throws NullPointerException if storage is null
+     */
+    public RandomizedKruskals(MazeStorage storage) {
+        this(storage, MazeRandom.newSeed());
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze and sets the seed
+     * of its random generator.
+     *
+     * @param  storage the storage for the maze nodes
+     * @param  seed    the seed of the random generator
+     * @throws NullPointerException if storage is null
+     */
+    public RandomizedKruskals(MazeStorage storage, long seed) {
+        super(storage);
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /** Returns the seed of the random generator. */
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public void reset(long seed) {
+        abortSteps();
+        this.seed = seed;
+        rnd.setSeed(seed);
+    }
+
+    /**
+     * Sets whether the edges are visited in the order of a seeded permutation
+     * instead of a shuffled edge list. The two modes generate different mazes
+     * from the same seed.
+     *
+     * @param  implicitOrder true to use the implicit order
+     */
+    public void setImplicitOrder(boolean implicitOrder) {
+        this.implicitOrder = implicitOrder;
+    }
+
+    /** Returns whether the edges are visited in an implicit order. */
+    public boolean isImplicitOrder() {
+        return implicitOrder;
     }
 
     @Override
     public void generate() {
+        abortSteps();
+        beginSteps();
+        runSteps(Integer.MAX_VALUE);
+    }
+
+    @Override
+    protected void beginSteps() {
         fill();
-        randomizedKruskals();
+        if (implicitOrder) {
+            edgeCount = 2L * getWidth() * getHeight() - getWidth() - getHeight();
+            permutation = new EdgePermutation(edgeCount, rnd);
+            shuffled = 0;
+        } else {
+            /* Creates a list of all edges, to be shuffled first. */
+            permutation = null;
+            edgeCount = getEdges().length;
+            shuffled = edges.length - 1;
+        }
+
+        /* Creates a disjoint set forest with a set for each node. */
+        resetForest();
+        position = 0;
+        merged = 0;
     }
 
-    private void randomizedKruskals() {
-        /* Creates a list of all edges. */
-        int[] edges = getEdges();
+    @Override
+    protected boolean runSteps(int maxOperations) {
+        int ops = 0;
 
         /* Randomizes the order of the edge list. */
-        shuffle(edges);
-
-        /* Creates a disjoint set forest with a set for each node. */
-        DisjointSetForest dsf = new DisjointSetForest(getWidth() * getHeight());
+        for (; shuffled >= 1 && ops < maxOperations; --shuffled, ++ops) {
+            int j = rnd.nextInt(shuffled + 1);
+            int tmp = edges[j];
+            edges[j] = edges[shuffled];
+            edges[shuffled] = tmp;
+        }
+        if (shuffled >= 1) {
+            return false;
+        }
 
-        /* Merges the nodes if they belong to different sets. */
-        for (int e : edges) {
+        /*
+         * Merges the nodes if they belong to different sets. A spanning tree
+         * has one edge fewer than there are nodes, so the merging can stop
+         * once it has them.
+         */
+        int width = getWidth();
+        int nodes = width * getHeight();
+        for (; position < edgeCount && merged < nodes - 1 && ops < maxOperations; ++position, ++ops) {
+            int e = (permutation == null) ? edges[(int) position] : implicitEdge(permutation.get(position));
             Direction d = (e < 0) ? Direction.EAST : Direction.SOUTH;
             int u = e & 0x7fffffff;
-            int v = u + d.dy * getWidth() + d.dx;
+            int v = u + d.dy * width + d.dx;
             if (dsf.union(u, v)) {
-                removeWall(u % getWidth(), u / getWidth(), d);
+                removeWall(u % width, u / width, d);
+                ++merged;
             }
         }
+        return position >= edgeCount || merged >= nodes - 1;
+    }
+
+    /**
+     * Returns an edge of the implicit order in the form used by the edge
+     * list. Edge indices below (width - 1) * height join a node to the one
+     * east of it, the rest join a node to the one south of it.
+     */
+    private int implicitEdge(long k) {
+        int width = getWidth();
+        long horizontal = (long) (width - 1) * getHeight();
+        if (k < horizontal) {
+            int y = (int) (k / (width - 1));
+            return (y * width + (int) (k - (long) y * (width - 1))) | 0x80000000;
+        }
+        return (int) (k - horizontal);
     }
 
     /**
@@ -59,7 +195,9 @@ public class RandomizedKruskals extends Maze implements Serializable {
      */
     private int[] getEdges() {
         int nodes = getWidth() * getHeight();
-        int[] edges = new int[2 * nodes - getWidth() - getHeight()];
+        if (edges == null) {
+            edges = new int[2 * nodes - getWidth() - getHeight()];
+        }
         int index = 0;
 
         for (int y = 0; y < getHeight() - 1; ++y) {
@@ -81,13 +219,64 @@ public class RandomizedKruskals extends Maze implements Serializable {
         return edges;
     }
 
-    /** Randomly permutes the elements in an array. */
-    private void shuffle(int[] array) {
-        for (int i = array.length - 1; i >= 1; --i) {
-            int j = rnd.nextInt(i + 1);
-            int tmp = array[j];
-            array[j] = array[i];
-            array[i] = tmp;
+    /** Puts each node of the disjoint set forest in its own set. */
+    private void resetForest() {
+        if (dsf == null) {
+            dsf = new DisjointSetForest(getWidth() * getHeight());
+        } else {
+            Arrays.fill(dsf.a, -1);
+        }
+    }
+
+    /**
+     * A seeded bijection on [0, n). It is a four round Feistel network over
+     * the smallest number of bits that covers n, with halves one bit apart
+     * when the count is odd, walked again whenever it lands outside the
+     * range. The network covers less than twice n, so few steps are wasted.
+     */
+    private static class EdgePermutation {
+        final long n;
+        final int leftBits;
+        final int rightBits;
+        final long[] keys = new long[4];
+
+        EdgePermutation(long n, MazeRandom rnd) {
+            this.n = n;
+            int bits = Math.max(2, 64 - Long.numberOfLeadingZeros(n - 1));
+            leftBits = bits >> 1;
+            rightBits = bits - leftBits;
+            for (int i = 0; i < keys.length; ++i) {
+                keys[i] = rnd.nextLong();
+            }
+        }
+
+        long get(long i) {
+            long x = i;
+            do {
+                x = encrypt(x);
+            } while (x >= n);
+            return x;
+        }
+
+        long encrypt(long x) {
+            int a = leftBits;
+            int b = rightBits;
+            long left = x >>> b;
+            long right = x & ((1L << b) - 1);
+            for (long key : keys) {
+                long next = left ^ (round(right, key) & ((1L << a) - 1));
+                left = right;
+                right = next;
+                int tmp = a;
+                a = b;
+                b = tmp;
+            }
+            return (left << b) | right;
+        }
+
+        static long round(long x, long key) {
+            x = (x + key) * 0x9e3779b97f4a7c15L;
+            return x ^ (x >>> 32);
         }
     }
 
@@ -1,13 +1,11 @@
 package js42721.maze;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Random;
+import java.util.Arrays;
 
 import js42721.maze.coordinates.Node;
 import js42721.maze.coordinates.Point;
+import js42721.maze.storage.MazeStorage;
 
 /**
  * Implements a randomized version of Prim's algorithm. This algorithm is not
@@ -19,15 +17,24 @@ import js42721.maze.coordinates.Point;
  * spanning tree.
  */
 public class RandomizedPrims extends Maze implements Serializable {
-    private static final long serialVersionUID = 1761553893140412668L;
+    private static final long serialVersionUID = 8646176359548715494L;
 
     private static final int OUT      = 0;
     private static final int IN       = 1 << 0;
     private static final int FRONTIER = 1 << 1;
 
-    private final Random rnd;
+    private long seed;
+    private final MazeRandom rnd;
     private final Node start;
 
+    /*
+     * The state of a generation, kept between steps. The arrays are also kept
+     * between runs so that regenerating does not allocate.
+     */
+    private transient int[] frontiers;
+    private transient int frontierCount;
+    private transient int[] neighbors;
+
     /**
      * Sets the dimensions of the maze.
      *
@@ -36,9 +43,47 @@ public class RandomizedPrims extends Maze implements Serializable {
      * @throws IllegalArgumentException if width or height is not positive
      */
     public RandomizedPrims(int width, int height) {
+        this(width, height, MazeRandom.newSeed());
+    }
+
+    /**
+     * Sets the dimensions of the maze and the seed of its random generator.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  seed   the seed of the random generator
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public RandomizedPrims(int width, int height, long seed) {
         super(width, height);
-        rnd = new Random();
-        start = new Node(rnd.nextInt(width), rnd.nextInt(height));
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+        start = new Node(rnd.nextInt(getWidth()), rnd.nextInt(getHeight()));
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze.
+     *
+     * @param  storage the storage for the maze nodes
+     * @throws NullPointerException if storage is null
+     */
+    public RandomizedPrims(MazeStorage storage) {
+        this(storage, MazeRandom.newSeed());
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze and sets the seed
+     * of its random generator.
+     *
+     * @param  storage the storage for the maze nodes
+     * @param  seed    the seed of the random generator
+     * @throws NullPointerException if storage is null
+     */
+    public RandomizedPrims(MazeStorage storage, long seed) {
+        super(storage);
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+        start = new Node(rnd.nextInt(getWidth()), rnd.nextInt(getHeight()));
     }
 
     /**
@@ -56,7 +101,8 @@ public class RandomizedPrims extends Maze implements Serializable {
         super(width, height);
         checkBounds(startX, startY);
         start = new Node(startX, startY);
-        rnd = new Random();
+        seed = MazeRandom.newSeed();
+        rnd = MazeRandom.create(seed);
     }
 
     /**
@@ -102,84 +148,111 @@ public class RandomizedPrims extends Maze implements Serializable {
         return new Node(start);
     }
 
+    /** Returns the seed of the random generator. */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Reseeds the maze. The starting point is picked at random, as the seeded
+     * constructors do; {@link #setStart(int, int)} can fix it afterwards.
+     *
+     * @param  seed the new seed
+     */
+    @Override
+    public void reset(long seed) {
+        abortSteps();
+        this.seed = seed;
+        rnd.setSeed(seed);
+        start.set(rnd.nextInt(getWidth()), rnd.nextInt(getHeight()));
+    }
+
     @Override
     public void generate() {
-        fill();
-        randomizedPrims(start);
+        abortSteps();
+        beginSteps();
+        runSteps(Integer.MAX_VALUE);
+        markModified();
     }
 
-    private void randomizedPrims(Node start) {
-        /* Frontiers are the unvisited nodes adjacent to the visited ones. */
-        List<Node> frontiers = new ArrayList<Node>();
-        Direction[] neighbors = new Direction[4];
+    @Override
+    protected void beginSteps() {
+        fill();
+        MazeStorage storage = getStorage();
+
+        /*
+         * Frontiers are the unvisited nodes adjacent to the visited ones. They
+         * are kept as node indices, and removed by moving the last one into
+         * their place.
+         */
+        if (frontiers == null) {
+            frontiers = new int[64];
+            neighbors = new int[4];
+        }
+        frontierCount = 0;
 
         /* Marks the starting node as visited and gets its frontiers. */
-        setFlags(start, IN);
-        getFrontiers(start, frontiers);
+        int first = storage.index(start.x, start.y);
+        storage.setFlags(first, IN);
+        addFrontiers(storage, first);
+    }
 
-        while (!frontiers.isEmpty()) {
+    @Override
+    protected boolean runSteps(int maxOperations) {
+        MazeStorage storage = getStorage();
+        for (int i = 0; i < maxOperations && frontierCount > 0; ++i) {
             /* Picks a random frontier. */
-            int random = rnd.nextInt(frontiers.size());
-            int last = frontiers.size() - 1;
-            Collections.swap(frontiers, random, last); // For O(1) removal.
-            Node current = frontiers.remove(last);
+            int random = rnd.nextInt(frontierCount);
+            int current = frontiers[random];
+            frontiers[random] = frontiers[--frontierCount]; // For O(1) removal.
 
             /* Picks a random visited neighbor of the frontier. */
-            int neighborCount = getVisitedNeighbors(current, neighbors);
-            Direction d = neighbors[rnd.nextInt(neighborCount)];
+            int neighborCount = getVisitedNeighbors(storage, current, neighbors);
+            int d = neighbors[rnd.nextInt(neighborCount)];
 
             /*
              * Removes the wall between the frontier and the selected neighbor
              * and then marks the frontier as visited.
              */
-            removeWall(current, d);
-            setFlags(current, IN);
+            int next = storage.neighbor(current, d);
+            storage.setWalls(current, storage.getWalls(current) & ~(1 << d));
+            storage.setWalls(next, storage.getWalls(next) & ~(1 << ((d + 2) & 3)));
+            storage.setFlags(current, IN);
 
             /* Looks for new frontiers. */
-            getFrontiers(current, frontiers);
+            addFrontiers(storage, current);
         }
+        return frontierCount == 0;
     }
 
     /**
      * Finds the unvisited neighbors of a node and adds them to the frontier
-     * list if they were not already included.
+     * array if they were not already included.
      */
-    private void getFrontiers(Node n, List<Node> frontiers) {
-        if (n.y > 0 && getFlags(n.x, n.y - 1) == OUT) {
-            markFrontier(n.x, n.y - 1, frontiers);
-        }
-        if (n.x < getWidth() - 1 && getFlags(n.x + 1, n.y) == OUT) {
-            markFrontier(n.x + 1, n.y, frontiers);
-        }
-        if (n.y < getHeight() - 1 && getFlags(n.x, n.y + 1) == OUT) {
-            markFrontier(n.x, n.y + 1, frontiers);
+    private void addFrontiers(MazeStorage storage, int n) {
+        if (frontiers.length < frontierCount + 4) {
+            frontiers = Arrays.copyOf(frontiers, 2 * frontiers.length);
         }
-        if (n.x > 0 && getFlags(n.x - 1, n.y) == OUT) {
-            markFrontier(n.x - 1, n.y, frontiers);
+        int outer = storage.getOuterSides(n);
+        for (int d = 0; d < 4; ++d) {
+            if ((outer & (1 << d)) == 0) {
+                int m = storage.neighbor(n, d);
+                if (storage.getFlags(m) == OUT) {
+                    storage.setFlags(m, FRONTIER);
+                    frontiers[frontierCount++] = m;
+                }
+            }
         }
     }
 
-    /** Helper method for getFrontiers. */
-    private void markFrontier(int x, int y, List<Node> frontiers) {
-        Node n = new Node(x, y);
-        setFlags(n, FRONTIER);
-        frontiers.add(n);
-    }
-
-    /** Gets the directions pointing to the visited neighbors of a node. */
-    private int getVisitedNeighbors(Node n, Direction[] neighbors) {
+    /** Gets the direction ordinals pointing to the visited neighbors of a node. */
+    private int getVisitedNeighbors(MazeStorage storage, int n, int[] neighbors) {
         int count = 0;
-        if (n.y > 0 && getFlags(n.x, n.y - 1) == IN) {
-            neighbors[count++] = Direction.NORTH;
-        }
-        if (n.x < getWidth() - 1 && getFlags(n.x + 1, n.y) == IN) {
-            neighbors[count++] = Direction.EAST;
-        }
-        if (n.y < getHeight() - 1 && getFlags(n.x, n.y + 1) == IN) {
-            neighbors[count++] = Direction.SOUTH;
-        }
-        if (n.x > 0 && getFlags(n.x - 1, n.y) == IN) {
-            neighbors[count++] = Direction.WEST;
+        int outer = storage.getOuterSides(n);
+        for (int d = 0; d < 4; ++d) {
+            if ((outer & (1 << d)) == 0 && storage.getFlags(storage.neighbor(n, d)) == IN) {
+                neighbors[count++] = d;
+            }
         }
         return count;
     }
@@ -1,21 +1,29 @@
 package js42721.maze;
 
 import java.io.Serializable;
-import java.util.Random;
 
 import js42721.maze.coordinates.Node;
 import js42721.maze.coordinates.Point;
+import js42721.maze.storage.MazeStorage;
 
 /**
  * Implements the recursive backtracking algorithm. The algorithm works by
  * exploring unvisited nodes using randomized depth-first search.
  */
 public class RecursiveBacktracker extends Maze implements Serializable {
-    private static final long serialVersionUID = -5689416515127359434L;
+    private static final long serialVersionUID = -4710195610026039955L;
 
-    private final Random rnd;
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private long seed;
+    private final MazeRandom rnd;
     private final Node start;
 
+    /* The state of a generation, kept between steps. */
+    private transient Node current;
+    private transient Direction[] moves;
+    private transient int unvisited;
+
     /**
      * Sets the dimensions of the maze.
      *
@@ -24,9 +32,47 @@ public class RecursiveBacktracker extends Maze implements Serializable {
      * @throws IllegalArgumentException if width or height is not positive
      */
     public RecursiveBacktracker(int width, int height) {
+        this(width, height, MazeRandom.newSeed());
+    }
+
+    /**
+     * Sets the dimensions of the maze and the seed of its random generator.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  seed   the seed of the random generator
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public RecursiveBacktracker(int width, int height, long seed) {
         super(width, height);
-        rnd = new Random();
-        start = new Node(rnd.nextInt(width), rnd.nextInt(height));
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+        start = new Node(rnd.nextInt(getWidth()), rnd.nextInt(getHeight()));
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze.
+     *
+     * @param  storage the storage for the maze nodes
+     * @throws NullPointerException if storage is null
+     */
+    public RecursiveBacktracker(MazeStorage storage) {
+        this(storage, MazeRandom.newSeed());
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze and sets the seed
+     * of its random generator.
+     *
+     * @param  storage the storage for the maze nodes
+     * @param  seed    the seed of the random generator
+     * @throws NullPointerException if storage is null
+     */
+    public RecursiveBacktracker(MazeStorage storage, long seed) {
+        super(storage);
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+        start = new Node(rnd.nextInt(getWidth()), rnd.nextInt(getHeight()));
     }
 
     /**
@@ -44,7 +90,8 @@ public class RecursiveBacktracker extends Maze implements Serializable {
         super(width, height);
         checkBounds(startX, startY);
         start = new Node(startX, startY);
-        rnd = new Random();
+        seed = MazeRandom.newSeed();
+        rnd = MazeRandom.create(seed);
     }
 
     /**
@@ -90,27 +137,53 @@ public class RecursiveBacktracker extends Maze implements Serializable {
         return new Node(start);
     }
 
+    /** Returns the seed of the random generator. */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Reseeds the maze. The starting point is picked at random, as the seeded
+     * constructors do; {@link #setStart(int, int)} can fix it afterwards.
+     *
+     * @param  seed the new seed
+     */
     @Override
-    public void generate() {
-        fill();
-        recursiveBacktrack(start);
+    public void reset(long seed) {
+        abortSteps();
+        this.seed = seed;
+        rnd.setSeed(seed);
+        start.set(rnd.nextInt(getWidth()), rnd.nextInt(getHeight()));
     }
 
-    private void recursiveBacktrack(Node start) {
-        Direction[] directions = Direction.values();
-        Direction[] moves = new Direction[4];
-        int unvisited = getWidth() * getHeight() - 1;
+    @Override
+    public void generate() {
+        abortSteps();
+        beginSteps();
+        runSteps(Integer.MAX_VALUE);
+    }
 
-        Node current = new Node(start);
+    @Override
+    protected void beginSteps() {
+        fill();
+        if (current == null) {
+            current = new Node();
+            moves = new Direction[4];
+        }
+        current.set(start);
+        unvisited = getWidth() * getHeight() - 1;
+    }
 
-        while (unvisited > 0) {
+    @Override
+    protected boolean runSteps(int maxOperations) {
+        for (int i = 0; i < maxOperations && unvisited > 0; ++i) {
             /* Finds adjacent unvisited nodes. */
             int moveCount = getMoves(current, moves);
 
             /* Takes a step back if there are no such nodes. */
             if (moveCount == 0) {
                 /* Moves in the reverse of the saved direction. */
-                Direction rev = directions[getFlags(current)].getReverse();
+                Direction rev = DIRECTIONS[getFlags(current)].getReverse();
                 current.translate(rev.dx, rev.dy);
                 continue;
             }
@@ -127,6 +200,7 @@ public class RecursiveBacktracker extends Maze implements Serializable {
 
             --unvisited;
         }
+        return unvisited == 0;
     }
 
     /** Gets the directions which point to adjacent unvisited nodes. */
@@ -1,7 +1,9 @@
 package js42721.maze;
 
 import java.io.Serializable;
-import java.util.Random;
+import java.util.Arrays;
+
+import js42721.maze.storage.MazeStorage;
 
 /**
  * Implements the recursive division algorithm. The algorithm starts with an
@@ -9,12 +11,17 @@ import java.util.Random;
  * horizontal or vertical wall.
  */
 public class RecursiveDivider extends Maze implements Serializable {
-    private static final long serialVersionUID = -6219935045687115436L;
+    private static final long serialVersionUID = -7746000250317726590L;
 
     private static final boolean HORIZONTAL = true;
     private static final boolean VERTICAL   = false;
 
-    private final Random rnd;
+    private long seed;
+    private final MazeRandom rnd;
+
+    /* The areas left to divide, as x, y, width and height, kept between steps. */
+    private transient int[] stack;
+    private transient int stackSize;
 
     /**
      * Sets the dimensions of the maze.
@@ -24,55 +31,146 @@ public class RecursiveDivider extends Maze implements Serializable {
      * @throws IllegalArgumentException if width or height is not positive
      */
     public RecursiveDivider(int width, int height) {
+        this(width, height, MazeRandom.newSeed());
+    }
+
+    /**
+     * Sets the dimensions of the maze and the seed of its random generator.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  seed   the seed of the random generator
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public RecursiveDivider(int width, int height, long seed) {
         super(width, height);
-        rnd = new Random();
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze.
+     *
+     * @param  storage the storage for the maze nodes
+     * @throws NullPointerException if storage is null
+     */
+    public RecursiveDivider(MazeStorage storage) {
+        this(storage, MazeRandom.newSeed());
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze and sets the seed
+     * of its random generator.
+     *
+     * @param  storage the storage for the maze nodes
+     * @param  seed    the seed of the random generator
+     * @throws NullPointerException if storage is null
+     */
+    public RecursiveDivider(MazeStorage storage, long seed) {
+        super(storage);
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /** Returns the seed of the random generator. */
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public void reset(long seed) {
+        abortSteps();
+        this.seed = seed;
+        rnd.setSeed(seed);
     }
 
     @Override
     public void generate() {
+        abortSteps();
+        beginSteps();
+        runSteps(Integer.MAX_VALUE);
+    }
+
+    @Override
+    protected void beginSteps() {
         clear();
         addBorder();
-        recursiveDivision(0, 0, getWidth(), getHeight());
+        if (stack == null) {
+            stack = new int[64];
+        }
+        stack[0] = 0;
+        stack[1] = 0;
+        stack[2] = getWidth();
+        stack[3] = getHeight();
+        stackSize = 4;
     }
 
-    private void recursiveDivision(int x, int y, int width, int height) {
-        if (width <= 1 || height <= 1) {
-            return;
-        }
+    /**
+     * Divides the areas on a stack rather than by recursion, so that the work
+     * can be paused. The second half of an area is pushed below the first, so
+     * the areas are divided in the same order as by recursion. An operation
+     * is a wall segment.
+     */
+    @Override
+    protected boolean runSteps(int maxOperations) {
+        int ops = 0;
+        while (stackSize > 0 && ops < maxOperations) {
+            stackSize -= 4;
+            int x = stack[stackSize];
+            int y = stack[stackSize + 1];
+            int width = stack[stackSize + 2];
+            int height = stack[stackSize + 3];
+            if (width <= 1 || height <= 1) {
+                continue;
+            }
 
-        int aw, ah;
-        int bx, by, bw, bh;
+            int aw, ah;
+            int bx, by, bw, bh;
 
-        if (getOrientation(width, height) == HORIZONTAL) {
-            int tx = x + width, ty = y + height;
-            int wy = rnd.nextInt((ty - 1) - y) + y; // Picks a random location.
-            for (int wx = x; wx < tx; ++wx) { // Places the wall.
-                addWall(wx, wy, Direction.SOUTH);
+            if (getOrientation(width, height) == HORIZONTAL) {
+                int tx = x + width, ty = y + height;
+                int wy = rnd.nextInt((ty - 1) - y) + y; // Picks a random location.
+                for (int wx = x; wx < tx; ++wx) { // Places the wall.
+                    addWall(wx, wy, Direction.SOUTH);
+                }
+                removeWall(rnd.nextInt(tx - x) + x, wy, Direction.SOUTH); // Makes an opening.
+                bx = x;
+                by = wy + 1;
+                bw = width;
+                bh = ty - wy - 1;
+                aw = width;
+                ah = by - y;
+                ops += width;
+            } else { // Perpendicular version of the above.
+                int tx = x + width, ty = y + height;
+                int wx = rnd.nextInt((tx - 1) - x) + x;
+                for (int wy = y; wy < ty; ++wy) {
+                    addWall(wx, wy, Direction.EAST);
+                }
+                removeWall(wx, rnd.nextInt(ty - y) + y, Direction.EAST);
+                bx = wx + 1;
+                by = y;
+                bw = tx - wx - 1;
+                bh = height;
+                aw = bx - x;
+                ah = height;
+                ops += height;
             }
-            removeWall(rnd.nextInt(tx - x) + x, wy, Direction.SOUTH); // Makes an opening.
-            bx = x;
-            by = wy + 1;
-            bw = width;
-            bh = ty - wy - 1;
-            aw = width;
-            ah = by - y;
-        } else { // Perpendicular version of the above.
-            int tx = x + width, ty = y + height;
-            int wx = rnd.nextInt((tx - 1) - x) + x;
-            for (int wy = y; wy < ty; ++wy) {
-                addWall(wx, wy, Direction.EAST);
-            }
-            removeWall(wx, rnd.nextInt(ty - y) + y, Direction.EAST);
-            bx = wx + 1;
-            by = y;
-            bw = tx - wx - 1;
-            bh = height;
-            aw = bx - x;
-            ah = height;
+
+            push(bx, by, bw, bh);
+            push(x, y, aw, ah);
         }
+        return stackSize == 0;
+    }
 
-        recursiveDivision(x, y, aw, ah);
-        recursiveDivision(bx, by, bw, bh);
+    private void push(int x, int y, int width, int height) {
+        if (stackSize + 4 > stack.length) {
+            stack = Arrays.copyOf(stack, 2 * stack.length);
+        }
+        stack[stackSize++] = x;
+        stack[stackSize++] = y;
+        stack[stackSize++] = width;
+        stack[stackSize++] = height;
     }
 
     /** Chooses wall orientation based on the dimensions of an area. */
@@ -0,0 +1,17 @@
+package js42721.maze;
+
+/**
+ * Receives the rows of a maze as a row-streaming generator finishes them.
+ * Rows arrive in order, starting from row 0. The array holds the wall bits of
+ * each node in the row and is reused for later rows, so it must be copied if
+ * it is kept.
+ */
+public interface RowSink {
+    /**
+     * Accepts a finished row.
+     *
+     * @param y     the y-coordinate of the row
+     * @param walls the wall bits of the nodes in the row
+     */
+    void acceptRow(int y, byte[] walls);
+}
@@ -1,13 +1,25 @@
 package js42721.maze;
 
 import java.io.Serializable;
-import java.util.Random;
+import java.util.Arrays;
 
-/** Implements the Sidewinder algorithm. */
+import js42721.maze.storage.MazeStorage;
+
+/**
+ * Implements the Sidewinder algorithm. Since each row only carves into the
+ * one above it, the algorithm can also stream rows to a {@link RowSink}
+ * without storing the maze.
+ */
 public class Sidewinder extends Maze implements Serializable {
-    private static final long serialVersionUID = -9051529889756722075L;
+    private static final long serialVersionUID = -864116730726562256L;
+
+    private static final byte ALL = 0xf;
+
+    private long seed;
+    private final MazeRandom rnd;
 
-    private final Random rnd;
+    /* The rows being generated, kept between steps and reused by the next generation. */
+    private transient Rows rows;
 
     /**
      * Sets the dimensions of the maze.
@@ -17,30 +29,176 @@ public class Sidewinder extends Maze implements Serializable {
      * @throws IllegalArgumentException if width or height is not positive
      */
     public Sidewinder(int width, int height) {
+        this(width, height, MazeRandom.newSeed());
+    }
+
+    /**
+     * Sets the dimensions of the maze and the seed of its random generator.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  seed   the seed of the random generator
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public Sidewinder(int width, int height, long seed) {
         super(width, height);
-        rnd = new Random();
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze.
+     *
+     * @param  storage the storage for the maze nodes
+     * @throws NullPointerException if storage is null
+     */
+    public Sidewinder(MazeStorage storage) {
+        this(storage, MazeRandom.newSeed());
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze and sets the seed
+     * of its random generator.
+     *
+     * @param  storage the storage for the maze nodes
+     * @param  seed    the seed of the random generator
+     * @throws NullPointerException if storage is null
+     */
+    public Sidewinder(MazeStorage storage, long seed) {
+        super(storage);
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /** Returns the seed of the random generator. */
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public void reset(long seed) {
+        abortSteps();
+        this.seed = seed;
+        rnd.setSeed(seed);
     }
 
     @Override
     public void generate() {
+        abortSteps();
+        Rows rows = startRows();
+        boolean last;
+        do {
+            last = rows.next();
+        } while (!last);
+    }
+
+    @Override
+    protected void beginSteps() {
         fill();
-        sidewinder();
+        startRows();
+    }
+
+    /** Generates whole rows, each counting as one operation per node. */
+    @Override
+    protected boolean runSteps(int maxOperations) {
+        for (int ops = 0; ops < maxOperations; ops += getWidth()) {
+            if (rows.next()) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private void sidewinder() {
-        for (int x = 0; x < getWidth() - 1; ++x) {
-            removeWall(x, 0, Direction.EAST);
+    /** Starts a generation, reusing the rows of the last one if there was one. */
+    private Rows startRows() {
+        if (rows == null) {
+            rows = new Rows(getWidth(), getHeight(), rnd, this::setRow);
+        } else {
+            rows.start();
         }
-        for (int y = 1; y < getHeight(); ++y) {
-            for (int x = 0; x < getWidth(); ++x) {
+        return rows;
+    }
+
+    /**
+     * Generates a maze row by row without storing it. A row is passed to the
+     * sink once the row below it has been carved, and only two rows are kept
+     * at a time, so the height is limited only by the sink.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  rnd    the source of randomness
+     * @param  sink   the receiver of the rows
+     * @throws IllegalArgumentException if width or height is not positive
+     * @throws NullPointerException if rnd or sink is null
+     */
+    public static void generateRows(int width, int height, MazeRandom rnd, RowSink sink) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Width and height must be positive");
+        }
+        if (rnd == null || sink == null) {
+            throw new NullPointerException();
+        }
+        Rows rows = new Rows(width, height, rnd, sink);
+        boolean last;
+        do {
+            last = rows.next();
+        } while (!last);
+    }
+
+    /** The state of a row by row generation. */
+    private static class Rows {
+        final int height;
+        final MazeRandom rnd;
+        final RowSink sink;
+        byte[] prev;
+        byte[] row;
+        int y;
+
+        Rows(int width, int height, MazeRandom rnd, RowSink sink) {
+            this.height = height;
+            this.rnd = rnd;
+            this.sink = sink;
+            prev = new byte[width];
+            row = new byte[width];
+            start();
+        }
+
+        /** Starts again from the first row, which is one long passage. */
+        void start() {
+            y = 1;
+            Arrays.fill(prev, ALL);
+            for (int x = 0; x < prev.length - 1; ++x) {
+                prev[x] &= ~Direction.EAST.mask;
+                prev[x + 1] &= ~Direction.WEST.mask;
+            }
+        }
+
+        /** Passes the next row to the sink and returns true if it was the last. */
+        boolean next() {
+            if (y == height) {
+                sink.acceptRow(height - 1, prev);
+                return true;
+            }
+            int width = row.length;
+            Arrays.fill(row, ALL);
+            for (int x = 0; x < width; ++x) {
                 int z = 1;
-                while (x < getWidth() - 1 && rnd.nextBoolean()) {
-                    removeWall(x, y, Direction.EAST);
+                while (x < width - 1 && rnd.nextBoolean()) {
+                    row[x] &= ~Direction.EAST.mask;
+                    row[x + 1] &= ~Direction.WEST.mask;
                     ++x;
                     ++z;
                 }
-                removeWall(x - rnd.nextInt(z), y, Direction.NORTH);
+                int c = x - rnd.nextInt(z);
+                row[c] &= ~Direction.NORTH.mask;
+                prev[c] &= ~Direction.SOUTH.mask;
             }
+            sink.acceptRow(y - 1, prev);
+            byte[] tmp = prev;
+            prev = row;
+            row = tmp;
+            ++y;
+            return false;
         }
     }
 }
@@ -0,0 +1,63 @@
+package js42721.maze;
+
+import java.io.Serializable;
+
+/**
+ * The default {@link MazeRandom}, using the SplitMix64 algorithm that also
+ * backs {@code java.util.SplittableRandom}. Each value takes an addition and
+ * a short mixing function, and splitting picks a new seed and a new odd
+ * increment from the current sequence.
+ */
+public class SplitMixRandom extends MazeRandom implements Serializable {
+    private static final long serialVersionUID = 2885027541939468155L;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long seed;
+    private long gamma;
+
+    /**
+     * Creates a generator with the specified seed.
+     *
+     * @param seed the seed
+     */
+    public SplitMixRandom(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    private SplitMixRandom(long seed, long gamma) {
+        this.seed = seed;
+        this.gamma = gamma;
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        this.seed = seed;
+        gamma = GOLDEN_GAMMA;
+    }
+
+    @Override
+    public long nextLong() {
+        return mix64(seed += gamma);
+    }
+
+    @Override
+    public MazeRandom split() {
+        return new SplitMixRandom(mix64(seed += gamma), mixGamma(seed += gamma));
+    }
+
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Derives an increment with enough bit transitions to mix well. */
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int n = Long.bitCount(z ^ (z >>> 1));
+        return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+}
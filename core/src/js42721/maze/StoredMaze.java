@@ -0,0 +1,34 @@
+package js42721.maze;
+
+import java.io.Serializable;
+
+import js42721.maze.storage.MazeStorage;
+
+/**
+ * A maze that was generated elsewhere, such as one reopened from a {@link
+ * js42721.maze.storage.MappedStorage} file. It gives access to the walls of
+ * the stored maze but cannot generate a new one.
+ */
+public class StoredMaze extends Maze implements Serializable {
+    private static final long serialVersionUID = 8405513357013574221L;
+
+    /**
+     * Wraps the specified storage.
+     *
+     * @param  storage the storage holding the maze nodes
+     * @throws NullPointerException if storage is null
+     */
+    public StoredMaze(MazeStorage storage) {
+        super(storage);
+    }
+
+    /**
+     * Not supported.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void generate() {
+        throw new UnsupportedOperationException("Stored mazes cannot be generated");
+    }
+}
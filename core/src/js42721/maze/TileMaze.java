@@ -1,16 +1,28 @@
 package js42721.maze;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 import js42721.maze.coordinates.Point;
+import js42721.maze.storage.MazeStorage;
 
-/** Tile maze wrapper for {@link Maze}. */
+/**
+ * Tile maze wrapper for {@link Maze}. Tiles are normally worked out from the
+ * maze on every query. With caching turned on, the maze is instead expanded
+ * once into a bitmap with one bit per tile, which is rebuilt in a single pass
+ * whenever the maze's {@link Maze#getModificationCount() modification count}
+ * changes.
+ */
 public class TileMaze implements Serializable {
     private static final long serialVersionUID = -5050221133107186563L;
 
     private Maze maze;
     private int width;
     private int height;
+    private boolean cached;
+    private transient long[] tiles;
+    private transient int wordsPerRow;
+    private transient int tilesModCount;
 
     /**
      * Creates a tile maze wrapper around the specified {@link Maze} object.
@@ -35,6 +47,7 @@ public class TileMaze implements Serializable {
         this.maze = maze;
         width = 2 * maze.getWidth() + 1;
         height = 2 * maze.getHeight() + 1;
+        tiles = null;
     }
 
     /** Returns the internal {@link Maze} object. */
@@ -47,6 +60,55 @@ public class TileMaze implements Serializable {
         maze.generate();
     }
 
+    /**
+     * Carries out part of the generation of the internal maze.
+     *
+     * @param  maxOperations the most operations to carry out
+     * @return true if the maze is finished
+     * @throws IllegalArgumentException if maxOperations is not positive
+     * @see    Maze#step(int)
+     */
+    public boolean step(int maxOperations) {
+        return maze.step(maxOperations);
+    }
+
+    /**
+     * Carries on generating the internal maze for about the specified time.
+     *
+     * @param  millis the time to spend, in milliseconds
+     * @return true if the maze is finished
+     * @see    Maze#stepFor(long)
+     */
+    public boolean stepFor(long millis) {
+        return maze.stepFor(millis);
+    }
+
+    /** Returns whether no step-by-step generation of the maze is under way. */
+    public boolean isDone() {
+        return maze.isDone();
+    }
+
+    /**
+     * Reseeds the internal maze.
+     *
+     * @param  seed the new seed
+     * @throws UnsupportedOperationException if the maze cannot be reseeded
+     * @see    Maze#reset(long)
+     */
+    public void reset(long seed) {
+        maze.reset(seed);
+    }
+
+    /**
+     * Reseeds and generates the internal maze.
+     *
+     * @param  seed the new seed
+     * @throws UnsupportedOperationException if the maze cannot be reseeded
+     */
+    public void regenerate(long seed) {
+        maze.regenerate(seed);
+    }
+
     /** Returns the width of the maze in tiles. */
     public int getWidth() {
         return width;
@@ -57,6 +119,33 @@ public class TileMaze implements Serializable {
         return height;
     }
 
+    /**
+     * Turns the tile bitmap on or off. The bitmap takes one bit per tile and
+     * is built on the next query.
+     *
+     * @param cached true to answer queries from the bitmap
+     */
+    public void setCached(boolean cached) {
+        this.cached = cached;
+        if (!cached) {
+            tiles = null;
+        }
+    }
+
+    /** Returns true if queries are answered from the tile bitmap. */
+    public boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * Discards the tile bitmap so that it is rebuilt on the next query. This
+     * is only needed if the maze was changed without going through its
+     * wall methods.
+     */
+    public void invalidate() {
+        tiles = null;
+    }
+
     /**
      * Checks if the tile at the specified coordinates is a wall.
      *
@@ -67,6 +156,9 @@ public class TileMaze implements Serializable {
      */
     public boolean isWall(int x, int y) {
         checkBounds(x, y);
+        if (cached) {
+            return (getTiles()[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+        }
         boolean xIsEven = (x % 2 == 0);
         boolean yIsEven = (y % 2 == 0);
         if (xIsEven && yIsEven) {
@@ -99,6 +191,115 @@ public class TileMaze implements Serializable {
         return isWall(p.getX(), p.getY());
     }
 
+    /**
+     * Reports each run of consecutive wall tiles in a row, from left to right.
+     *
+     * @param  y        the y-coordinate of the row
+     * @param  consumer the consumer to call for each run
+     * @throws OutOfBoundsException if y is out of bounds
+     * @throws NullPointerException if consumer is null
+     */
+    public void forEachWallRun(int y, WallRunConsumer consumer) {
+        checkBounds(0, y);
+        if (consumer == null) {
+            throw new NullPointerException();
+        }
+        if (!cached) {
+            int x = 0;
+            while (x < width) {
+                if (!isWall(x, y)) {
+                    ++x;
+                    continue;
+                }
+                int start = x;
+                while (x < width && isWall(x, y)) {
+                    ++x;
+                }
+                consumer.accept(y, start, x);
+            }
+            return;
+        }
+        long[] t = getTiles();
+        int base = y * wordsPerRow;
+        int x = nextBit(t, base, 0, false);
+        while (x < width) {
+            int end = nextBit(t, base, x, true);
+            consumer.accept(y, x, end);
+            x = nextBit(t, base, end, false);
+        }
+    }
+
+    /**
+     * Returns the position of the next set bit (or clear bit if clear is
+     * true) of a bitmap row at or after x, or the width if there is none.
+     */
+    private int nextBit(long[] t, int base, int x, boolean clear) {
+        if (x >= width) {
+            return width;
+        }
+        int w = x >>> 6;
+        long flip = clear ? -1L : 0L;
+        long word = (t[base + w] ^ flip) & (-1L << x);
+        while (word == 0) {
+            if (++w == wordsPerRow) {
+                return width;
+            }
+            word = t[base + w] ^ flip;
+        }
+        return Math.min(width, (w << 6) + Long.numberOfTrailingZeros(word));
+    }
+
+    /** Returns the tile bitmap, rebuilding it if the maze has changed. */
+    private long[] getTiles() {
+        if (tiles == null || tilesModCount != maze.getModificationCount()) {
+            rebuildTiles();
+        }
+        return tiles;
+    }
+
+    /** Expands the maze into the tile bitmap in a single pass. */
+    private void rebuildTiles() {
+        wordsPerRow = (width + 63) >>> 6;
+        if (tiles == null || tiles.length != wordsPerRow * height) {
+            tiles = new long[wordsPerRow * height];
+        } else {
+            Arrays.fill(tiles, 0L);
+        }
+        tilesModCount = maze.getModificationCount();
+        MazeStorage storage = maze.getStorage();
+        int mw = maze.getWidth();
+        int mh = maze.getHeight();
+        for (int x = 0; x < mw; ++x) {
+            setTile(2 * x, 0);
+            if ((storage.getWalls(storage.index(x, 0)) & Direction.NORTH.mask) != 0) {
+                setTile(2 * x + 1, 0);
+            }
+        }
+        setTile(2 * mw, 0);
+        for (int y = 0; y < mh; ++y) {
+            int cellRow = 2 * y + 1;
+            int wallRow = 2 * y + 2;
+            if ((storage.getWalls(storage.index(0, y)) & Direction.WEST.mask) != 0) {
+                setTile(0, cellRow);
+            }
+            setTile(0, wallRow);
+            for (int x = 0; x < mw; ++x) {
+                int walls = storage.getWalls(storage.index(x, y));
+                if ((walls & Direction.EAST.mask) != 0) {
+                    setTile(2 * x + 2, cellRow);
+                }
+                if ((walls & Direction.SOUTH.mask) != 0) {
+                    setTile(2 * x + 1, wallRow);
+                }
+                setTile(2 * x + 2, wallRow);
+            }
+        }
+    }
+
+    private void setTile(int x, int y) {
+        tiles[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+    }
+
     private void checkBounds(int x, int y) {
         if (x < 0 || x >= width || y < 0 || y >= height) {
             throw new OutOfBoundsException("(" + x + ", " + y + ")");
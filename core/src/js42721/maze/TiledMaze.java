@@ -0,0 +1,244 @@
+package js42721.maze;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import js42721.maze.storage.MazeStorage;
+
+/**
+ * Generates a large maze by splitting it into square tiles, generating each
+ * tile independently with another generator, and joining the tiles with a
+ * random spanning tree over the tile grid. Every tile is a perfect maze and
+ * adjacent tiles in the tree share exactly one opening, so the whole maze is
+ * perfect too, although long straight seams may show along tile borders.
+ * <p>
+ * Tiles are generated in parallel and their seeds are derived from the seed
+ * of the maze, so the result does not depend on the number of threads.
+ */
+public class TiledMaze extends Maze implements Serializable {
+    private static final long serialVersionUID = -1862037254926351127L;
+
+    private final int tileSize;
+    private final MazeFactory factory;
+    private long seed;
+    private int parallelism;
+
+    /**
+     * Sets the dimensions of the maze, the size of its tiles and the
+     * generator of the tiles, for instance {@code Wilsons::new}.
+     *
+     * @param  width    the width of the maze
+     * @param  height   the height of the maze
+     * @param  tileSize the width and height of the tiles
+     * @param  factory  the generator of the tiles
+     * @throws IllegalArgumentException if width, height or tileSize is not
+     *         positive
+     * @throws NullPointerException if factory is null
+     */
+    public TiledMaze(int width, int height, int tileSize, MazeFactory factory) {
+        this(width, height, tileSize, factory, MazeRandom.newSeed());
+    }
+
+    /**
+     * Sets the dimensions of the maze, the size of its tiles, the generator
+     * of the tiles and the seed.
+     *
+     * @param  width    the width of the maze
+     * @param  height   the height of the maze
+     * @param  tileSize the width and height of the tiles
+     * @param  factory  the generator of the tiles
+     * @param  seed     the seed of the tiles and of the spanning tree
+     * @throws IllegalArgumentException if width, height or tileSize is not
+     *         positive
+     * @throws NullPointerException if factory is null
+     */
+    public TiledMaze(int width, int height, int tileSize, MazeFactory factory, long seed) {
+        super(width, height);
+        this.tileSize = checkTileSize(tileSize);
+        this.factory = checkFactory(factory);
+        this.seed = seed;
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze and sets the size
+     * of its tiles, the generator of the tiles and the seed.
+     *
+     * @param  storage  the storage for the maze nodes
+     * @param  tileSize the width and height of the tiles
+     * @param  factory  the generator of the tiles
+     * @param  seed     the seed of the tiles and of the spanning tree
+     * @throws IllegalArgumentException if tileSize is not positive
+     * @throws NullPointerException if storage or factory is null
+     */
+    public TiledMaze(MazeStorage storage, int tileSize, MazeFactory factory, long seed) {
+        super(storage);
+        this.tileSize = checkTileSize(tileSize);
+        this.factory = checkFactory(factory);
+        this.seed = seed;
+    }
+
+    private static int checkTileSize(int tileSize) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("Tile size must be positive");
+        }
+        return tileSize;
+    }
+
+    private static MazeFactory checkFactory(MazeFactory factory) {
+        if (factory == null) {
+            throw new NullPointerException();
+        }
+        return factory;
+    }
+
+    /** Returns the seed of the tiles and of the spanning tree. */
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public void reset(long seed) {
+        this.seed = seed;
+    }
+
+    /** Returns the width and height of the tiles. */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Sets the number of threads to generate with. The result does not
+     * depend on it.
+     *
+     * @param  parallelism the number of threads, or 0 for the common pool
+     * @throws IllegalArgumentException if parallelism is negative
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("Parallelism must not be negative");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /** Returns the number of threads, or 0 for the common pool. */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public void generate() {
+        fill();
+        int columns = (getWidth() + tileSize - 1) / tileSize;
+        int rows = (getHeight() + tileSize - 1) / tileSize;
+        MazeRandom rnd = MazeRandom.create(seed);
+        long[] tileSeeds = new long[columns * rows];
+        for (int i = 0; i < tileSeeds.length; ++i) {
+            tileSeeds[i] = rnd.nextLong();
+        }
+
+        ForkJoinPool pool = Parallel.pool(parallelism);
+        try {
+            Parallel.forRange(pool, 0, tileSeeds.length, 1, (from, to) -> {
+                for (int i = from; i < to; ++i) {
+                    generateTile(i % columns * tileSize, i / columns * tileSize, tileSeeds[i]);
+                }
+            });
+        } finally {
+            Parallel.release(pool);
+        }
+
+        joinTiles(columns, rows, rnd);
+        markModified();
+    }
+
+    /** Generates a tile and copies its walls into place. */
+    private void generateTile(int x0, int y0, long tileSeed) {
+        int width = Math.min(tileSize, getWidth() - x0);
+        int height = Math.min(tileSize, getHeight() - y0);
+        Maze tile = factory.create(width, height, tileSeed);
+        tile.generate();
+        MazeStorage storage = getStorage();
+        CellVisitor copy = (index, x, y, walls) -> {
+            /* Tiles are closed off until the spanning tree opens them. */
+            if (x == 0) {
+                walls |= Direction.WEST.mask;
+            }
+            if (x == width - 1) {
+                walls |= Direction.EAST.mask;
+            }
+            if (y == 0) {
+                walls |= Direction.NORTH.mask;
+            }
+            if (y == height - 1) {
+                walls |= Direction.SOUTH.mask;
+            }
+            storage.setWalls(storage.index(x0 + x, y0 + y), walls);
+        };
+        if (storage.supportsConcurrentWrites()) {
+            tile.forEachCell(copy);
+        } else {
+            synchronized (storage) {
+                tile.forEachCell(copy);
+            }
+        }
+    }
+
+    /**
+     * Opens one wall along the border of each pair of tiles joined by a random
+     * spanning tree of the tile grid, found with randomized Kruskal's.
+     */
+    private void joinTiles(int columns, int rows, MazeRandom rnd) {
+        int tiles = columns * rows;
+        int[] edges = new int[2 * tiles - columns - rows];
+        int count = 0;
+        for (int i = 0; i < tiles; ++i) {
+            if (i % columns < columns - 1) {
+                edges[count++] = i | 0x80000000;
+            }
+            if (i / columns < rows - 1) {
+                edges[count++] = i;
+            }
+        }
+        for (int i = edges.length - 1; i >= 1; --i) {
+            int j = rnd.nextInt(i + 1);
+            int tmp = edges[j];
+            edges[j] = edges[i];
+            edges[i] = tmp;
+        }
+
+        int[] parent = new int[tiles];
+        Arrays.fill(parent, -1);
+        for (int e : edges) {
+            boolean east = e < 0;
+            int u = e & 0x7fffffff;
+            int v = east ? u + 1 : u + columns;
+            int rootU = find(parent, u);
+            int rootV = find(parent, v);
+            if (rootU == rootV) {
+                continue;
+            }
+            parent[rootU] = rootV;
+
+            int x0 = u % columns * tileSize;
+            int y0 = u / columns * tileSize;
+            if (east) {
+                int span = Math.min(tileSize, getHeight() - y0);
+                removeWall(x0 + tileSize - 1, y0 + rnd.nextInt(span), Direction.EAST);
+            } else {
+                int span = Math.min(tileSize, getWidth() - x0);
+                removeWall(x0 + rnd.nextInt(span), y0 + tileSize - 1, Direction.SOUTH);
+            }
+        }
+    }
+
+    private static int find(int[] parent, int x) {
+        while (parent[x] >= 0) {
+            if (parent[parent[x]] >= 0) {
+                parent[x] = parent[parent[x]];
+            }
+            x = parent[x];
+        }
+        return x;
+    }
+}
@@ -0,0 +1,15 @@
+package js42721.maze;
+
+/** Receives the walls changed by each shift of an {@link OriginShift} maze. */
+public interface WallChangeListener {
+    /**
+     * Called after a wall is added or removed. The wall is also changed on
+     * the neighboring node.
+     *
+     * @param x    the x-coordinate of the node
+     * @param y    the y-coordinate of the node
+     * @param d    the side of the node the wall is on
+     * @param wall true if the wall was added, false if it was removed
+     */
+    void wallChanged(int x, int y, Direction d, boolean wall);
+}
@@ -0,0 +1,13 @@
+package js42721.maze;
+
+/** Receives runs of wall tiles from {@link TileMaze#forEachWallRun}. */
+public interface WallRunConsumer {
+    /**
+     * Accepts a run of consecutive wall tiles in a row.
+     *
+     * @param y      the y-coordinate of the row
+     * @param startX the x-coordinate of the first wall tile of the run
+     * @param endX   the x-coordinate just past the last wall tile of the run
+     */
+    void accept(int y, int startX, int endX);
+}
@@ -1,9 +1,9 @@
 package js42721.maze;
 
 import java.io.Serializable;
-import java.util.Random;
 
 import js42721.maze.coordinates.Node;
+import js42721.maze.storage.MazeStorage;
 
 /**
  * Implements Wilson's algorithm. The algorithm creates a uniform spanning
@@ -11,12 +11,23 @@ import js42721.maze.coordinates.Node;
  * by performing loop-erased random walks.
  */
 public class Wilsons extends Maze implements Serializable {
-    private static final long serialVersionUID = 5105826907978290069L;
+    private static final long serialVersionUID = -3390443939348828989L;
 
     /* The first two bits are reserved for directions. */
     private static final int IN = 1 << 2;
 
-    private final Random rnd;
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private long seed;
+    private final MazeRandom rnd;
+
+    /* The state of a generation, kept between steps. */
+    private transient Node current;
+    private transient Node walk;
+    private transient Node trace;
+    private transient Direction[] moves;
+    private transient int next;
+    private transient boolean tracing;
 
     /**
      * Sets the dimensions of the maze.
@@ -26,14 +37,84 @@ public class Wilsons extends Maze implements Serializable {
      * @throws IllegalArgumentException if width or height is not positive
      */
     public Wilsons(int width, int height) {
+        this(width, height, MazeRandom.newSeed());
+    }
+
+    /**
+     * Sets the dimensions of the maze and the seed of its random generator.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  seed   the seed of the random generator
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public Wilsons(int width, int height, long seed) {
         super(width, height);
-        rnd = new Random();
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze.
+     *
+     * @param  storage the storage for the maze nodes
+     * @throws NullPointerException if storage is null
+     */
+    public Wilsons(MazeStorage storage) {
+        this(storage, MazeRandom.newSeed());
+    }
+
+    /**
+     * Uses the specified storage for the nodes of the maze and sets the seed
+     * of its random generator.
+     *
+     * @param  storage the storage for the maze nodes
+     * @param  seed    the seed of the random generator
+     * @throws NullPointerException if storage is null
+     */
+    public Wilsons(MazeStorage storage, long seed) {
+        super(storage);
+        this.seed = seed;
+        rnd = MazeRandom.create(seed);
+    }
+
+    /** Returns the seed of the random generator. */
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public void reset(long seed) {
+        abortSteps();
+        this.seed = seed;
+        rnd.setSeed(seed);
     }
 
     @Override
     public void generate() {
+        abortSteps();
+        beginSteps();
+        runSteps(Integer.MAX_VALUE);
+    }
+
+    @Override
+    protected void beginSteps() {
         fill();
-        wilson();
+        if (current == null) {
+            current = new Node();
+            walk = new Node();
+            trace = new Node();
+            moves = new Direction[4];
+        }
+        next = getWidth() * getHeight() - 2;
+
+        /* Marks a node as visited. */
+        setFlags(getWidth() - 1, getHeight() - 1, IN);
+
+        /* Picks an unvisited node. */
+        current.set(next % getWidth(), next / getWidth());
+        walk.set(current);
+        tracing = false;
     }
 
     /*
@@ -59,40 +140,37 @@ public class Wilsons extends Maze implements Serializable {
            WWWWWWWWWWWWWWWWWWWW
                WWWWWWWWWWW
      */
-    private void wilson() {
-        Direction[] directions = Direction.values();
-        Direction[] moves = new Direction[4];
-        Node walk = new Node();
-        Node trace = new Node();
-        int i = getWidth() * getHeight() - 2;
-
-        /* Marks a node as visited. */
-        setFlags(getWidth() - 1, getHeight() - 1, IN);
-
-        /* Picks an unvisited node. */
-        Node current = new Node(i % getWidth(), i / getWidth());
-
-        while (i >= 0) {
-            walk.set(current);
-
-            /* Walks randomly until a visited node is found. */
-            while (getFlags(walk) != IN) {
-                int moveCount = getMoves(walk, moves);
-                Direction d = moves[rnd.nextInt(moveCount)];
-
-                /* Saves the node's exit direction. */
-                setFlags(walk, d.ordinal());
-
-                walk.translate(d.dx, d.dy);
+    @Override
+    protected boolean runSteps(int maxOperations) {
+        int ops = 0;
+        while (next >= 0) {
+            if (!tracing) {
+                /* Walks randomly until a visited node is found. */
+                while (getFlags(walk) != IN) {
+                    if (ops++ == maxOperations) {
+                        return false;
+                    }
+                    int moveCount = getMoves(walk, moves);
+                    Direction d = moves[rnd.nextInt(moveCount)];
+
+                    /* Saves the node's exit direction. */
+                    setFlags(walk, d.ordinal());
+
+                    walk.translate(d.dx, d.dy);
+                }
+                trace.set(current);
+                tracing = true;
             }
 
-            trace.set(current);
-            int flags = getFlags(trace);
-
             /* Traces the path of the walk but avoids any loops. */
+            int flags = getFlags(trace);
             while (flags != IN) {
+                if (ops++ == maxOperations) {
+                    return false;
+                }
+
                 /* Carves along the saved exit direction. */
-                Direction d = directions[flags];
+                Direction d = DIRECTIONS[flags];
                 removeWall(trace, d);
 
                 /* Marks the node as visited. */
@@ -103,14 +181,17 @@ public class Wilsons extends Maze implements Serializable {
             }
 
             /* Finds the next unvisited node. */
-            while (i >= 0) {
-                current.set(i % getWidth(), i / getWidth());
+            while (next >= 0) {
+                current.set(next % getWidth(), next / getWidth());
                 if (getFlags(current) != IN) {
                     break;
                 }
-                --i;
+                --next;
             }
+            walk.set(current);
+            tracing = false;
         }
+        return true;
     }
 
     /** Gets the moves that can be made from a node. */
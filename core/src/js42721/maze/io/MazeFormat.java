@@ -0,0 +1,65 @@
+package js42721.maze.io;
+
+/**
+ * Constants of the binary maze format read by {@link MazeReader} and written
+ * by {@link MazeWriter}. All numbers are big-endian.
+ *
+ * <pre>
+ * header:
+ *   int    magic           0x4d5a4631 ("MZF1")
+ *   byte   version         1
+ *   int    width
+ *   int    height
+ *   int    rowsPerChunk
+ *   byte   compression     0 = none, 1 = deflate
+ *   UTF    generator       as written by DataOutput.writeUTF
+ *   long   seed
+ * chunks, one per rowsPerChunk rows (the last one may be shorter):
+ *   int    length          payload length in bytes
+ *   byte[] payload         the walls of the rows, two nodes per byte, low
+ *                          nibble first, possibly compressed
+ * index:
+ *   int    chunkCount
+ *   chunkCount times:
+ *     long offset          position of the chunk's length field
+ *     int  length          payload length in bytes
+ * trailer:
+ *   long   indexOffset     position of the index
+ *   int    magic
+ * </pre>
+ *
+ * The wall bits of a node use the masks of {@link js42721.maze.Direction}.
+ * The index lets a reader with random access decode a region without
+ * touching the chunks outside of it.
+ */
+public final class MazeFormat {
+    /** Marks the start and the end of a maze file. */
+    public static final int MAGIC = 0x4d5a4631;
+
+    /** The version of the format written by this package. */
+    public static final int VERSION = 1;
+
+    /** Chunk payloads are stored as is. */
+    public static final int COMPRESSION_NONE = 0;
+
+    /** Chunk payloads are compressed with deflate. */
+    public static final int COMPRESSION_DEFLATE = 1;
+
+    /** The number of rows in a chunk unless another value is given. */
+    public static final int DEFAULT_ROWS_PER_CHUNK = 64;
+
+    /** The size of the trailer in bytes. */
+    static final int TRAILER_SIZE = 12;
+
+    private MazeFormat() {
+    }
+
+    /** Returns the number of bytes needed to pack a number of nodes. */
+    static int packedSize(long nodes) {
+        long size = (nodes + 1) / 2;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Chunk is too large");
+        }
+        return (int) size;
+    }
+}
@@ -0,0 +1,350 @@
+package js42721.maze.io;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import js42721.maze.Maze;
+import js42721.maze.StoredMaze;
+import js42721.maze.storage.HeapStorage;
+import js42721.maze.storage.MazeStorage;
+
+/**
+ * Reads mazes in the format described by {@link MazeFormat}. A reader over an
+ * {@link InputStream} decodes rows in order, one chunk at a time. A reader
+ * over a {@link FileChannel} can also decode a region of the maze, reading
+ * only the chunks that overlap it.
+ */
+public class MazeReader implements Closeable {
+    private final DataInputStream in;
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int rowsPerChunk;
+    private final int compression;
+    private final String generator;
+    private final long seed;
+    private final byte[] chunk;
+    private final Inflater inflater;
+    private long[] offsets;
+    private int[] lengths;
+    private byte[] compressed;
+    private int loadedChunk = -1;
+    private int rowsRead;
+
+    /**
+     * Reads the header of a maze from a stream.
+     *
+     * @param  in the stream to read from
+     * @throws IOException if an I/O error occurs or the data is not a maze
+     * @throws NullPointerException if in is null
+     */
+    public MazeReader(InputStream in) throws IOException {
+        this(new DataInputStream(in), null);
+    }
+
+    /**
+     * Reads the header and the chunk index of a maze file.
+     *
+     * @param  channel the file to read from
+     * @throws IOException if an I/O error occurs or the file is not a maze
+     * @throws NullPointerException if channel is null
+     */
+    public MazeReader(FileChannel channel) throws IOException {
+        this(new DataInputStream(Channels.newInputStream(channel.position(0))), channel);
+        readIndex();
+    }
+
+    private MazeReader(DataInputStream in, FileChannel channel) throws IOException {
+        this.in = in;
+        this.channel = channel;
+        if (in.readInt() != MazeFormat.MAGIC) {
+            throw new IOException("Not a maze file");
+        }
+        int version = in.readUnsignedByte();
+        if (version != MazeFormat.VERSION) {
+            throw new IOException("Unsupported maze format version " + version);
+        }
+        width = in.readInt();
+        height = in.readInt();
+        rowsPerChunk = in.readInt();
+        compression = in.readUnsignedByte();
+        generator = in.readUTF();
+        seed = in.readLong();
+        if (width <= 0 || height <= 0 || rowsPerChunk <= 0 || rowsPerChunk > height) {
+            throw new IOException("Invalid maze dimensions");
+        }
+        if (compression != MazeFormat.COMPRESSION_NONE
+                && compression != MazeFormat.COMPRESSION_DEFLATE) {
+            throw new IOException("Unknown compression " + compression);
+        }
+        try {
+            chunk = new byte[MazeFormat.packedSize((long) width * rowsPerChunk)];
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Chunk is too large", e);
+        }
+        inflater = (compression == MazeFormat.COMPRESSION_DEFLATE) ? new Inflater() : null;
+    }
+
+    /** Returns the width of the maze. */
+    public int getWidth() {
+        return width;
+    }
+
+    /** Returns the height of the maze. */
+    public int getHeight() {
+        return height;
+    }
+
+    /** Returns the number of rows in a chunk. */
+    public int getRowsPerChunk() {
+        return rowsPerChunk;
+    }
+
+    /** Returns the compression of the chunks. */
+    public int getCompression() {
+        return compression;
+    }
+
+    /** Returns the identifier of the algorithm that made the maze. */
+    public String getGenerator() {
+        return generator;
+    }
+
+    /** Returns the seed the maze was generated from. */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Reads the next row. Each element receives the wall bits of a node.
+     *
+     * @param  walls the array to fill, at least as long as the width
+     * @throws IOException if an I/O error occurs or the data is corrupt
+     * @throws IllegalStateException if all rows were already read
+     */
+    public void readRow(byte[] walls) throws IOException {
+        if (rowsRead == height) {
+            throw new IllegalStateException("All rows were already read");
+        }
+        int c = rowsRead / rowsPerChunk;
+        if (c != loadedChunk) {
+            if (channel == null) {
+                readNextChunk(c);
+            } else {
+                loadChunk(c);
+            }
+        }
+        unpack(rowsRead - c * rowsPerChunk, 0, width, walls);
+        ++rowsRead;
+    }
+
+    /**
+     * Reads the remaining rows into a storage of the same dimensions. Flags
+     * are left untouched.
+     *
+     * @param  storage the storage to fill
+     * @throws IOException if an I/O error occurs or the data is corrupt
+     * @throws IllegalArgumentException if the dimensions do not match
+     */
+    public void read(MazeStorage storage) throws IOException {
+        if (storage.getWidth() != width || storage.getHeight() != height) {
+            throw new IllegalArgumentException("Storage dimensions do not match");
+        }
+        byte[] row = new byte[width];
+        while (rowsRead < height) {
+            int y = rowsRead;
+            readRow(row);
+            for (int x = 0; x < width; ++x) {
+                storage.setWalls(storage.index(x, y), row[x]);
+            }
+        }
+    }
+
+    /**
+     * Reads the whole maze onto the heap. No rows may have been read yet.
+     *
+     * @return the maze
+     * @throws IOException if an I/O error occurs or the data is corrupt
+     * @throws IllegalStateException if rows were already read
+     */
+    public Maze readMaze() throws IOException {
+        if (rowsRead != 0) {
+            throw new IllegalStateException("Rows were already read");
+        }
+        MazeStorage storage = new HeapStorage(width, height);
+        read(storage);
+        return new StoredMaze(storage);
+    }
+
+    /**
+     * Reads a rectangular region of the maze onto the heap. Only chunks that
+     * overlap the region are decoded. The walls on the edge of the region are
+     * those of the full maze, so they may be open.
+     *
+     * @param  x      the x-coordinate of the region's top-left node
+     * @param  y      the y-coordinate of the region's top-left node
+     * @param  width  the width of the region
+     * @param  height the height of the region
+     * @return the region as a maze
+     * @throws IOException if an I/O error occurs or the data is corrupt
+     * @throws IllegalArgumentException if the region is empty or does not fit
+     *         in the maze
+     * @throws IllegalStateException if this reader is not over a file
+     */
+    public Maze readRegion(int x, int y, int width, int height) throws IOException {
+        if (channel == null) {
+            throw new IllegalStateException("Regions can only be read from a file");
+        }
+        if (width <= 0 || height <= 0 || x < 0 || y < 0
+                || x > this.width - width || y > this.height - height) {
+            throw new IllegalArgumentException("Region does not fit in the maze");
+        }
+        MazeStorage storage = new HeapStorage(width, height);
+        byte[] row = new byte[width];
+        for (int ty = 0; ty < height; ++ty) {
+            int c = (y + ty) / rowsPerChunk;
+            if (c != loadedChunk) {
+                loadChunk(c);
+            }
+            unpack(y + ty - c * rowsPerChunk, x, width, row);
+            for (int tx = 0; tx < width; ++tx) {
+                storage.setWalls(storage.index(tx, ty), row[tx]);
+            }
+        }
+        return new StoredMaze(storage);
+    }
+
+    /**
+     * Closes the underlying stream or channel.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (inflater != null) {
+            inflater.end();
+        }
+        in.close();
+    }
+
+    private void readIndex() throws IOException {
+        long size = channel.size();
+        ByteBuffer trailer = readFully(size - MazeFormat.TRAILER_SIZE, MazeFormat.TRAILER_SIZE);
+        long indexOffset = trailer.getLong();
+        if (trailer.getInt() != MazeFormat.MAGIC || indexOffset < 0
+                || indexOffset > size - MazeFormat.TRAILER_SIZE - 4) {
+            throw new IOException("Missing chunk index");
+        }
+        int chunks = readFully(indexOffset, 4).getInt();
+        if (chunks != (height + rowsPerChunk - 1) / rowsPerChunk
+                || 12L * chunks > size - MazeFormat.TRAILER_SIZE - 4 - indexOffset) {
+            throw new IOException("Chunk index does not match the header");
+        }
+        ByteBuffer index = readFully(indexOffset + 4, 12 * chunks);
+        offsets = new long[chunks];
+        lengths = new int[chunks];
+        for (int c = 0; c < chunks; ++c) {
+            long offset = index.getLong();
+            int length = index.getInt();
+            if (offset < 0 || length < 0 || offset + 4 + length > indexOffset
+                    || length > maxChunkLength()) {
+                throw new IOException("Invalid chunk index entry " + c);
+            }
+            offsets[c] = offset;
+            lengths[c] = length;
+        }
+    }
+
+    /** Reads a chunk at its indexed position. */
+    private void loadChunk(int c) throws IOException {
+        int length = lengths[c];
+        ensureCompressed(length);
+        ByteBuffer buffer = ByteBuffer.wrap(compressed, 0, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offsets[c] + 4 + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        decode(c, compressed, length);
+    }
+
+    /** Reads the chunk that follows in the stream. */
+    private void readNextChunk(int c) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxChunkLength()) {
+            throw new IOException("Invalid chunk length");
+        }
+        ensureCompressed(length);
+        in.readFully(compressed, 0, length);
+        decode(c, compressed, length);
+    }
+
+    /**
+     * Returns the longest a stored chunk can be: its packed size, plus what
+     * deflate adds to data that does not compress.
+     */
+    private int maxChunkLength() {
+        return (int) Math.min(Integer.MAX_VALUE, chunk.length + chunk.length / 1000L + 64);
+    }
+
+    private void ensureCompressed(int length) {
+        if (compressed == null || compressed.length < length) {
+            compressed = new byte[length];
+        }
+    }
+
+    private void decode(int c, byte[] data, int length) throws IOException {
+        int rows = Math.min(rowsPerChunk, height - c * rowsPerChunk);
+        int size = MazeFormat.packedSize((long) rows * width);
+        if (inflater == null) {
+            if (length != size) {
+                throw new IOException("Invalid chunk length");
+            }
+            System.arraycopy(data, 0, chunk, 0, size);
+        } else {
+            inflater.reset();
+            inflater.setInput(data, 0, length);
+            try {
+                int n = 0;
+                while (n < size) {
+                    int k = inflater.inflate(chunk, n, size - n);
+                    if (k == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new IOException("Truncated chunk");
+                    }
+                    n += k;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt chunk", e);
+            }
+        }
+        loadedChunk = c;
+    }
+
+    private void unpack(int row, int x, int count, byte[] walls) {
+        long base = (long) row * width + x;
+        for (int i = 0; i < count; ++i) {
+            long n = base + i;
+            int shift = (int) (n & 1) << 2;
+            walls[i] = (byte) ((chunk[(int) (n >>> 1)] >> shift) & MazeStorage.WALL_MASK);
+        }
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,305 @@
+package js42721.maze.io;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import js42721.maze.Maze;
+import js42721.maze.RowSink;
+import js42721.maze.storage.MazeStorage;
+
+/**
+ * Writes mazes in the format described by {@link MazeFormat}. Rows are
+ * written one at a time and buffered only until their chunk is complete, so
+ * a maze never has to be held in memory as a whole. A writer is also a
+ * {@link RowSink}, so a row-streaming generator can write straight to a file.
+ */
+public class MazeWriter implements Closeable, RowSink {
+    private final DataOutputStream out;
+    private final CountingOutputStream counter;
+    private final int width;
+    private final int height;
+    private final int rowsPerChunk;
+    private final int compression;
+    private final byte[] chunk;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final Deflater deflater;
+    private byte[] compressed;
+    private int rowsWritten;
+    private int rowsInChunk;
+    private boolean finished;
+
+    /**
+     * Writes the header of a maze with the default chunk size and deflate
+     * compression.
+     *
+     * @param  out       the stream to write to
+     * @param  width     the width of the maze
+     * @param  height    the height of the maze
+     * @param  generator an identifier for the algorithm that made the maze
+     * @param  seed      the seed the maze was generated from
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if width or height is not positive
+     * @throws NullPointerException if out or generator is null
+     */
+    public MazeWriter(OutputStream out, int width, int height, String generator, long seed)
+            throws IOException {
+        this(out, width, height, generator, seed, MazeFormat.DEFAULT_ROWS_PER_CHUNK,
+             MazeFormat.COMPRESSION_DEFLATE);
+    }
+
+    /**
+     * Writes the header of a maze.
+     *
+     * @param  out          the stream to write to
+     * @param  width        the width of the maze
+     * @param  height       the height of the maze
+     * @param  generator    an identifier for the algorithm that made the maze
+     * @param  seed         the seed the maze was generated from
+     * @param  rowsPerChunk the number of rows in a chunk
+     * @param  compression  one of the compression constants of {@link
+     *                      MazeFormat}
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if a dimension or the chunk size is not
+     *         positive or if the compression is unknown
+     * @throws NullPointerException if out or generator is null
+     */
+    public MazeWriter(OutputStream out, int width, int height, String generator, long seed,
+                      int rowsPerChunk, int compression) throws IOException {
+        if (width <= 0 || height <= 0 || rowsPerChunk <= 0) {
+            throw new IllegalArgumentException("Dimensions and chunk size must be positive");
+        }
+        if (compression != MazeFormat.COMPRESSION_NONE
+                && compression != MazeFormat.COMPRESSION_DEFLATE) {
+            throw new IllegalArgumentException("Unknown compression " + compression);
+        }
+        if (generator == null) {
+            throw new NullPointerException();
+        }
+        this.width = width;
+        this.height = height;
+        this.rowsPerChunk = Math.min(rowsPerChunk, height);
+        this.compression = compression;
+        chunk = new byte[MazeFormat.packedSize((long) width * this.rowsPerChunk)];
+        int chunks = (height + this.rowsPerChunk - 1) / this.rowsPerChunk;
+        offsets = new long[chunks];
+        lengths = new int[chunks];
+        deflater = (compression == MazeFormat.COMPRESSION_DEFLATE) ? new Deflater() : null;
+        counter = new CountingOutputStream(out);
+        this.out = new DataOutputStream(counter);
+        this.out.writeInt(MazeFormat.MAGIC);
+        this.out.writeByte(MazeFormat.VERSION);
+        this.out.writeInt(width);
+        this.out.writeInt(height);
+        this.out.writeInt(this.rowsPerChunk);
+        this.out.writeByte(compression);
+        this.out.writeUTF(generator);
+        this.out.writeLong(seed);
+    }
+
+    /**
+     * Writes a whole maze to a stream and closes the stream.
+     *
+     * @param  maze the maze to write
+     * @param  out  the stream to write to
+     * @param  seed the seed the maze was generated from
+     * @throws IOException if an I/O error occurs
+     * @throws NullPointerException if an argument is null
+     */
+    public static void write(Maze maze, OutputStream out, long seed) throws IOException {
+        try (MazeWriter writer = new MazeWriter(out, maze.getWidth(), maze.getHeight(),
+                                                maze.getClass().getName(), seed)) {
+            writer.writeMaze(maze);
+        }
+    }
+
+    /**
+     * Writes all rows of a maze. The maze must have the dimensions given to
+     * the constructor and no rows may have been written yet.
+     *
+     * @param  maze the maze to write
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if the dimensions do not match
+     * @throws IllegalStateException if rows were already written
+     */
+    public void writeMaze(Maze maze) throws IOException {
+        if (maze.getWidth() != width || maze.getHeight() != height) {
+            throw new IllegalArgumentException("Maze dimensions do not match");
+        }
+        if (rowsWritten != 0) {
+            throw new IllegalStateException("Rows were already written");
+        }
+        MazeStorage storage = maze.getStorage();
+        byte[] row = new byte[width];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                row[x] = (byte) storage.getWalls(storage.index(x, y));
+            }
+            writeRow(row);
+        }
+    }
+
+    /**
+     * Writes the next row. Each element holds the wall bits of a node.
+     *
+     * @param  walls the walls of the nodes in the row
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if the row length is not the width
+     * @throws IllegalStateException if all rows were already written
+     */
+    public void writeRow(byte[] walls) throws IOException {
+        if (walls.length != width) {
+            throw new IllegalArgumentException("Row length must equal the width");
+        }
+        if (rowsWritten == height) {
+            throw new IllegalStateException("All rows were already written");
+        }
+        long base = (long) rowsInChunk * width;
+        for (int x = 0; x < width; ++x) {
+            long n = base + x;
+            int i = (int) (n >>> 1);
+            int shift = (int) (n & 1) << 2;
+            chunk[i] |= (walls[x] & MazeStorage.WALL_MASK) << shift;
+        }
+        ++rowsWritten;
+        if (++rowsInChunk == rowsPerChunk || rowsWritten == height) {
+            flushChunk();
+        }
+    }
+
+    /**
+     * Writes the next row as a {@link RowSink}.
+     *
+     * @param  y     the y-coordinate of the row, which must be the next one
+     * @param  walls the walls of the nodes in the row
+     * @throws UncheckedIOException if an I/O error occurs
+     * @throws IllegalArgumentException if y is not the next row or the row
+     *         length is not the width
+     */
+    @Override
+    public void acceptRow(int y, byte[] walls) {
+        if (y != rowsWritten) {
+            throw new IllegalArgumentException("Expected row " + rowsWritten + ", got " + y);
+        }
+        try {
+            writeRow(walls);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Returns the number of rows written so far. */
+    public int getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * Writes the index and the trailer. All rows must have been written. The
+     * underlying stream is flushed but not closed.
+     *
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalStateException if some rows are missing
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (rowsWritten != height) {
+            throw new IllegalStateException("Only " + rowsWritten + " of " + height
+                                            + " rows were written");
+        }
+        long indexOffset = counter.count;
+        out.writeInt(offsets.length);
+        for (int c = 0; c < offsets.length; ++c) {
+            out.writeLong(offsets[c]);
+            out.writeInt(lengths[c]);
+        }
+        out.writeLong(indexOffset);
+        out.writeInt(MazeFormat.MAGIC);
+        out.flush();
+        finished = true;
+        if (deflater != null) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Finishes the file and closes the underlying stream. The stream and the
+     * compressor are released even if some rows are missing, but the file is
+     * then left without its index, and an exception is thrown to say so.
+     *
+     * @throws IOException if an I/O error occurs or some rows are missing
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rowsWritten != height) {
+                throw new IOException("Closed after " + rowsWritten + " of " + height
+                                      + " rows; the file is incomplete");
+            }
+            finish();
+        } finally {
+            if (deflater != null && !finished) {
+                deflater.end();
+            }
+            out.close();
+        }
+    }
+
+    private void flushChunk() throws IOException {
+        int c = (rowsWritten - 1) / rowsPerChunk;
+        int size = MazeFormat.packedSize((long) rowsInChunk * width);
+        offsets[c] = counter.count;
+        if (deflater == null) {
+            lengths[c] = size;
+            out.writeInt(size);
+            out.write(chunk, 0, size);
+        } else {
+            if (compressed == null) {
+                compressed = new byte[size + size / 1000 + 64];
+            }
+            deflater.reset();
+            deflater.setInput(chunk, 0, size);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, 2 * compressed.length);
+                }
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            lengths[c] = length;
+            out.writeInt(length);
+            out.write(compressed, 0, length);
+        }
+        Arrays.fill(chunk, (byte) 0);
+        rowsInChunk = 0;
+    }
+
+    /** Keeps track of the stream position for the chunk index. */
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package js42721.maze.solve;
+
+import java.util.Arrays;
+
+import js42721.maze.Maze;
+
+/**
+ * Finds shortest paths with the A* algorithm, guided by the Manhattan distance
+ * to the goal. Every move changes that distance by one, so the estimated
+ * length of a path through a neighbor is either the same as through the node
+ * it is reached from, or two more. Two buckets of nodes are thus enough for a
+ * priority queue: those at the current estimate and those at the next.
+ * <p>
+ * The nodes of a bucket are taken last in, first out, which follows one
+ * promising path at a time. In a maze with loops this expands far fewer nodes
+ * than a breadth-first search. A perfect maze has only one path, which tends
+ * to wander away from the goal, so little is saved there.
+ */
+public class AStarSearch extends PathSolver {
+    private int[] now = new int[64];
+    private int[] later = new int[64];
+
+    @Override
+    int search(Maze maze, int start, int goal) {
+        int[] stamps = this.stamps;
+        byte[] parents = this.parents;
+        int[] costs = this.costs;
+        int stamp = this.stamp;
+        int goalX = maze.getX(goal);
+        int goalY = maze.getY(goal);
+
+        stamps[start] = stamp;
+        costs[start] = 0;
+        int estimate = Math.abs(maze.getX(start) - goalX) + Math.abs(maze.getY(start) - goalY);
+        int nowCount = 0;
+        int laterCount = 0;
+        now[nowCount++] = start;
+        while (true) {
+            if (nowCount == 0) {
+                if (laterCount == 0) {
+                    return -1;
+                }
+                int[] tmp = now;
+                now = later;
+                later = tmp;
+                nowCount = laterCount;
+                laterCount = 0;
+                estimate += 2;
+            }
+            int n = now[--nowCount];
+            if (n == goal) {
+                return costs[n];
+            }
+            int x = maze.getX(n);
+            int y = maze.getY(n);
+            int cost = costs[n];
+
+            /* Skips nodes that have since been reached by a shorter path. */
+            if (cost + Math.abs(x - goalX) + Math.abs(y - goalY) != estimate) {
+                continue;
+            }
+            expand();
+
+            /* The directions in which the distance to the goal shrinks. */
+            int closer = ((y > goalY) ? 1 : 0) | ((x < goalX) ? 2 : 0)
+                       | ((y < goalY) ? 4 : 0) | ((x > goalX) ? 8 : 0);
+
+            ++cost;
+            for (int open = maze.openNeighbors(n); open != 0; open &= open - 1) {
+                int d = Integer.numberOfTrailingZeros(open);
+                int m = maze.neighbor(n, d);
+                if (stamps[m] == stamp && costs[m] <= cost) {
+                    continue;
+                }
+                stamps[m] = stamp;
+                parents[m] = (byte) ((d + 2) & 3);
+                costs[m] = cost;
+                if ((closer & (1 << d)) != 0) {
+                    if (nowCount == now.length) {
+                        now = Arrays.copyOf(now, 2 * nowCount);
+                    }
+                    now[nowCount++] = m;
+                } else {
+                    if (laterCount == later.length) {
+                        later = Arrays.copyOf(later, 2 * laterCount);
+                    }
+                    later[laterCount++] = m;
+                }
+            }
+        }
+    }
+}
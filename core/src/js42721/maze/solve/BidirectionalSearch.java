@@ -0,0 +1,104 @@
+package js42721.maze.solve;
+
+import js42721.maze.Maze;
+
+/**
+ * Finds shortest paths with two breadth-first searches, one from the start
+ * and one from the goal, until they meet. Each round expands a whole level of
+ * whichever search has fewer nodes waiting, so neither search has to get
+ * far from its end. This does the most good in mazes with loops, where the
+ * nodes within a distance can grow much faster than the distance.
+ */
+public class BidirectionalSearch extends PathSolver {
+    private int[] forward = new int[0];
+    private int[] backward = new int[0];
+    private int shortest;
+
+    @Override
+    int search(Maze maze, int start, int goal) {
+        if (forward.length < stamps.length) {
+            forward = new int[stamps.length];
+            backward = new int[stamps.length];
+        }
+        int[] stamps = this.stamps;
+        int[] costs = this.costs;
+
+        stamps[start] = stamp;
+        costs[start] = 0;
+        if (start == goal) {
+            return 0;
+        }
+        stamps[goal] = stamp + 1;
+        costs[goal] = 0;
+        forward[0] = start;
+        backward[0] = goal;
+        int forwardHead = 0;
+        int forwardTail = 1;
+        int backwardHead = 0;
+        int backwardTail = 1;
+        shortest = -1;
+
+        while (forwardHead < forwardTail && backwardHead < backwardTail) {
+            /*
+             * The first meeting found is not always on a shortest path, but
+             * one of the meetings in the same level is, so the level is
+             * finished before stopping.
+             */
+            if (forwardTail - forwardHead <= backwardTail - backwardHead) {
+                int end = expandLevel(maze, forward, forwardHead, forwardTail, false);
+                forwardHead = forwardTail;
+                forwardTail = end;
+            } else {
+                int end = expandLevel(maze, backward, backwardHead, backwardTail, true);
+                backwardHead = backwardTail;
+                backwardTail = end;
+            }
+            if (shortest >= 0) {
+                return shortest;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Expands the nodes of one level of a search and queues the nodes they
+     * reach, keeping the shortest path through a node reached by the other
+     * search. Returns the new end of the queue.
+     */
+    private int expandLevel(Maze maze, int[] queue, int head, int end, boolean fromGoal) {
+        int[] stamps = this.stamps;
+        byte[] parents = this.parents;
+        int[] costs = this.costs;
+        int own = fromGoal ? stamp + 1 : stamp;
+        int other = fromGoal ? stamp : stamp + 1;
+
+        int tail = end;
+        for (int i = head; i < end; ++i) {
+            int n = queue[i];
+            expand();
+            int cost = costs[n] + 1;
+            for (int open = maze.openNeighbors(n); open != 0; open &= open - 1) {
+                int d = Integer.numberOfTrailingZeros(open);
+                int m = maze.neighbor(n, d);
+                int s = stamps[m];
+                if (s == own) {
+                    continue;
+                }
+                if (s == other) {
+                    int length = cost + costs[m];
+                    if (shortest < 0 || length < shortest) {
+                        shortest = length;
+                        meetForward = fromGoal ? m : n;
+                        meetBackward = fromGoal ? n : m;
+                    }
+                    continue;
+                }
+                stamps[m] = own;
+                parents[m] = (byte) ((d + 2) & 3);
+                costs[m] = cost;
+                queue[tail++] = m;
+            }
+        }
+        return tail;
+    }
+}
@@ -0,0 +1,49 @@
+package js42721.maze.solve;
+
+import js42721.maze.Maze;
+
+/**
+ * Finds shortest paths with a breadth-first search. Nodes are reached in
+ * order of their distance from the start, which makes this the simplest
+ * solver, and the one to use when most of the maze has to be searched anyway.
+ */
+public class BreadthFirstSearch extends PathSolver {
+    private int[] queue = new int[0];
+
+    @Override
+    int search(Maze maze, int start, int goal) {
+        if (queue.length < stamps.length) {
+            queue = new int[stamps.length];
+        }
+        int[] queue = this.queue;
+        int[] stamps = this.stamps;
+        byte[] parents = this.parents;
+        int[] costs = this.costs;
+        int stamp = this.stamp;
+
+        stamps[start] = stamp;
+        costs[start] = 0;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        while (head < tail) {
+            int n = queue[head++];
+            if (n == goal) {
+                return costs[n];
+            }
+            expand();
+            int cost = costs[n] + 1;
+            for (int open = maze.openNeighbors(n); open != 0; open &= open - 1) {
+                int d = Integer.numberOfTrailingZeros(open);
+                int m = maze.neighbor(n, d);
+                if (stamps[m] != stamp) {
+                    stamps[m] = stamp;
+                    parents[m] = (byte) ((d + 2) & 3);
+                    costs[m] = cost;
+                    queue[tail++] = m;
+                }
+            }
+        }
+        return -1;
+    }
+}
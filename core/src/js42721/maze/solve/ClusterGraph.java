@@ -0,0 +1,397 @@
+package js42721.maze.solve;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import js42721.maze.Direction;
+import js42721.maze.Maze;
+import js42721.maze.OutOfBoundsException;
+import js42721.maze.Parallel;
+
+/**
+ * An abstract graph of a maze split into square clusters, for hierarchical
+ * pathfinding. The nodes of the graph are the entrances of the clusters,
+ * which are the maze nodes with an open side into another cluster. Each
+ * cluster keeps the number of moves between every two of its entrances
+ * without leaving it, and a move through an open side joins an entrance to
+ * one in the next cluster. Any path through the maze is made of such pieces,
+ * so searching the graph gives shortest paths in mazes with loops as well.
+ * <p>
+ * The entrances of a cluster are kept in the order of their maze node
+ * indices. The graph node numbers of a cluster's entrances follow on from
+ * those of the cluster before it.
+ * <p>
+ * The clusters are built in parallel, each with a breadth-first search from
+ * every entrance. After walls have been added or removed, calling
+ * {@link #refresh(int, int)} for the nodes whose walls changed rebuilds only
+ * the clusters they touch. A graph must not be refreshed while it is being
+ * searched.
+ */
+public class ClusterGraph {
+    /** The largest cluster size. */
+    public static final int MAX_CLUSTER_SIZE = 128;
+
+    /* Marks a pair of entrances with no path between them inside their cluster. */
+    static final char UNREACHABLE = Character.MAX_VALUE;
+
+    /* The clusters handed to one task when building. */
+    private static final int GRAIN = 16;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final Maze maze;
+    private int modCount;
+    final int clusterSize;
+    final int clustersX;
+    final int clustersY;
+
+    /* The maze node indices of the entrances of each cluster, in order. */
+    final int[][] entrances;
+
+    /*
+     * The moves between the entrances of each cluster, with the distance from
+     * entrance i to entrance j of a cluster with k entrances at i * k + j.
+     */
+    final char[][] matrices;
+
+    /* The number of the first graph node of each cluster. */
+    final int[] offsets;
+
+    /**
+     * Builds the graph of a maze, using the common fork/join pool.
+     *
+     * @param  maze        the maze
+     * @param  clusterSize the width and height of the clusters
+     * @throws NullPointerException if maze is null
+     * @throws IllegalArgumentException if clusterSize is less than 2 or
+     *         greater than {@link #MAX_CLUSTER_SIZE}
+     */
+    public ClusterGraph(Maze maze, int clusterSize) {
+        this(maze, clusterSize, 0);
+    }
+
+    /**
+     * Builds the graph of a maze.
+     *
+     * @param  maze        the maze
+     * @param  clusterSize the width and height of the clusters
+     * @param  parallelism the number of threads, or 0 for the common pool
+     * @throws NullPointerException if maze is null
+     * @throws IllegalArgumentException if clusterSize is less than 2 or
+     *         greater than {@link #MAX_CLUSTER_SIZE}, or parallelism is
+     *         negative
+     */
+    public ClusterGraph(Maze maze, int clusterSize, int parallelism) {
+        if (clusterSize < 2 || clusterSize > MAX_CLUSTER_SIZE) {
+            throw new IllegalArgumentException("Cluster size must be from 2 to " + MAX_CLUSTER_SIZE);
+        }
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("Parallelism must not be negative");
+        }
+        this.maze = maze;
+        modCount = maze.getModificationCount();
+        this.clusterSize = clusterSize;
+        clustersX = (maze.getWidth() + clusterSize - 1) / clusterSize;
+        clustersY = (maze.getHeight() + clusterSize - 1) / clusterSize;
+        int clusterCount = clustersX * clustersY;
+        entrances = new int[clusterCount][];
+        matrices = new char[clusterCount][];
+        offsets = new int[clusterCount + 1];
+        ForkJoinPool pool = Parallel.pool(parallelism);
+        try {
+            Parallel.forRange(pool, 0, clusterCount, GRAIN, (from, to) -> {
+                Local local = new Local(this);
+                for (int c = from; c < to; ++c) {
+                    build(c, local);
+                }
+            });
+        } finally {
+            Parallel.release(pool);
+        }
+        sumOffsets();
+    }
+
+    /** Finds the entrances of a cluster and the distances between them. */
+    private void build(int c, Local local) {
+        int x0 = (c % clustersX) * clusterSize;
+        int y0 = (c / clustersX) * clusterSize;
+        int w = Math.min(clusterSize, maze.getWidth() - x0);
+        int h = Math.min(clusterSize, maze.getHeight() - y0);
+        int[] cells = new int[4 * clusterSize];
+        int count = 0;
+        for (int ly = 0; ly < h; ++ly) {
+            int step = (ly == 0 || ly == h - 1) ? 1 : Math.max(w - 1, 1);
+            for (int lx = 0; lx < w; lx += step) {
+                int crossing = 0;
+                if (ly == 0) {
+                    crossing |= Direction.NORTH.mask;
+                }
+                if (lx == w - 1) {
+                    crossing |= Direction.EAST.mask;
+                }
+                if (ly == h - 1) {
+                    crossing |= Direction.SOUTH.mask;
+                }
+                if (lx == 0) {
+                    crossing |= Direction.WEST.mask;
+                }
+                int index = maze.indexOf(x0 + lx, y0 + ly);
+                if ((maze.openNeighbors(index) & crossing) != 0) {
+                    cells[count++] = index;
+                }
+            }
+        }
+        cells = Arrays.copyOf(cells, count);
+        Arrays.sort(cells);
+        char[] matrix = new char[count * count];
+        for (int i = 0; i < count; ++i) {
+            local.search(cells[i]);
+            for (int j = 0; j < count; ++j) {
+                int distance = local.distance(cells[j]);
+                matrix[i * count + j] = (distance < 0) ? UNREACHABLE : (char) distance;
+            }
+        }
+        entrances[c] = cells;
+        matrices[c] = matrix;
+    }
+
+    private void sumOffsets() {
+        for (int c = 0; c < entrances.length; ++c) {
+            offsets[c + 1] = offsets[c] + entrances[c].length;
+        }
+    }
+
+    /**
+     * Rebuilds the clusters touched by a maze node whose walls have changed:
+     * its own cluster, and the clusters across any cluster border it lies on.
+     * Either of the two nodes on the sides of a changed wall will do.
+     * <p>
+     * The graph is taken to be up to date afterwards, so this should be
+     * called for every changed wall before searching again. Changes made
+     * straight through the maze's storage do not count as modifications,
+     * but must be refreshed all the same.
+     *
+     * @param  x the x-coordinate of the node
+     * @param  y the y-coordinate of the node
+     * @throws OutOfBoundsException if (x, y) is out of bounds
+     */
+    public void refresh(int x, int y) {
+        if (x < 0 || x >= maze.getWidth() || y < 0 || y >= maze.getHeight()) {
+            throw new OutOfBoundsException("(" + x + ", " + y + ")");
+        }
+        int cx = x / clusterSize;
+        int cy = y / clusterSize;
+        int lx = x - cx * clusterSize;
+        int ly = y - cy * clusterSize;
+        Local local = new Local(this);
+        build(cy * clustersX + cx, local);
+        if (lx == 0 && cx > 0) {
+            build(cy * clustersX + cx - 1, local);
+        }
+        if (lx == clusterSize - 1 && cx < clustersX - 1) {
+            build(cy * clustersX + cx + 1, local);
+        }
+        if (ly == 0 && cy > 0) {
+            build((cy - 1) * clustersX + cx, local);
+        }
+        if (ly == clusterSize - 1 && cy < clustersY - 1) {
+            build((cy + 1) * clustersX + cx, local);
+        }
+        sumOffsets();
+        modCount = maze.getModificationCount();
+    }
+
+    /** Returns the maze the graph was built from. */
+    public Maze getMaze() {
+        return maze;
+    }
+
+    /** Returns whether the walls of the maze have changed since the graph was built or refreshed. */
+    public boolean isStale() {
+        return maze.getModificationCount() != modCount;
+    }
+
+    /** Returns the width and height of the clusters. */
+    public int getClusterSize() {
+        return clusterSize;
+    }
+
+    /** Returns the number of clusters. */
+    public int getClusterCount() {
+        return entrances.length;
+    }
+
+    /** Returns the number of graph nodes, which is the number of entrances. */
+    public int getNodeCount() {
+        return offsets[entrances.length];
+    }
+
+    /**
+     * Returns the cluster of a maze node.
+     *
+     * @param  index the index of the maze node
+     * @return the number of the cluster
+     */
+    public int clusterOf(int index) {
+        return (maze.getY(index) / clusterSize) * clustersX + maze.getX(index) / clusterSize;
+    }
+
+    /**
+     * Returns the number of entrances of a cluster.
+     *
+     * @param  cluster the number of the cluster
+     * @return the number of entrances
+     * @throws ArrayIndexOutOfBoundsException if cluster is not a cluster
+     *         number
+     */
+    public int getEntranceCount(int cluster) {
+        return entrances[cluster].length;
+    }
+
+    /**
+     * Returns the maze node index of an entrance of a cluster.
+     *
+     * @param  cluster  the number of the cluster
+     * @param  entrance the number of the entrance within the cluster
+     * @return the maze node index
+     * @throws ArrayIndexOutOfBoundsException if either number is out of
+     *         range
+     */
+    public int getEntrance(int cluster, int entrance) {
+        return entrances[cluster][entrance];
+    }
+
+    /**
+     * Returns the number of moves between two entrances of a cluster without
+     * leaving it.
+     *
+     * @param  cluster the number of the cluster
+     * @param  from    the number of one entrance within the cluster
+     * @param  to      the number of the other entrance within the cluster
+     * @return the number of moves, or -1 if there is no such path
+     * @throws ArrayIndexOutOfBoundsException if a number is out of range
+     */
+    public int getDistance(int cluster, int from, int to) {
+        int count = entrances[cluster].length;
+        if (to < 0 || to >= count) {
+            throw new ArrayIndexOutOfBoundsException(to);
+        }
+        int distance = matrices[cluster][from * count + to];
+        return (distance == UNREACHABLE) ? -1 : distance;
+    }
+
+    /**
+     * Returns the number of an entrance within its cluster.
+     *
+     * @return the number of the entrance, or a negative number if the maze
+     *         node is not an entrance of the cluster
+     */
+    int slotOf(int cluster, int index) {
+        return Arrays.binarySearch(entrances[cluster], index);
+    }
+
+    /**
+     * A breadth-first search confined to one cluster, with its own scratch
+     * buffers. The search runs from a node outwards and remembers the move
+     * back towards it, so a path to the node can be walked from anywhere
+     * it reached.
+     */
+    static final class Local {
+        private final Maze maze;
+        private final int clusterSize;
+        private final int[] stamps;
+        private final int[] distances;
+        private final byte[] moves;
+        private final int[] queue;
+        private final int[] locals;
+        private int stamp;
+        private int x0;
+        private int y0;
+
+        Local(ClusterGraph graph) {
+            maze = graph.maze;
+            clusterSize = graph.clusterSize;
+            int area = clusterSize * clusterSize;
+            stamps = new int[area];
+            distances = new int[area];
+            moves = new byte[area];
+            queue = new int[area];
+            locals = new int[area];
+        }
+
+        /** Searches the cluster of a maze node from that node. */
+        void search(int index) {
+            if (stamp == Integer.MAX_VALUE) {
+                Arrays.fill(stamps, 0);
+                stamp = 0;
+            }
+            ++stamp;
+            int x = maze.getX(index);
+            int y = maze.getY(index);
+            x0 = x - x % clusterSize;
+            y0 = y - y % clusterSize;
+            int w = Math.min(clusterSize, maze.getWidth() - x0);
+            int h = Math.min(clusterSize, maze.getHeight() - y0);
+            int l = (y - y0) * clusterSize + (x - x0);
+            stamps[l] = stamp;
+            distances[l] = 0;
+            moves[l] = -1;
+            queue[0] = index;
+            locals[0] = l;
+            int head = 0;
+            int tail = 1;
+            while (head < tail) {
+                int n = queue[head];
+                l = locals[head++];
+                int lx = l % clusterSize;
+                int ly = l / clusterSize;
+                int distance = distances[l] + 1;
+                for (int open = maze.openNeighbors(n); open != 0; open &= open - 1) {
+                    int dir = Integer.numberOfTrailingZeros(open);
+                    Direction d = DIRECTIONS[dir];
+                    int nx = lx + d.dx;
+                    int ny = ly + d.dy;
+                    if (nx < 0 || nx >= w || ny < 0 || ny >= h) {
+                        continue;
+                    }
+                    int m = ny * clusterSize + nx;
+                    if (stamps[m] == stamp) {
+                        continue;
+                    }
+                    stamps[m] = stamp;
+                    distances[m] = distance;
+                    moves[m] = (byte) ((dir + 2) & 3);
+                    queue[tail] = maze.neighbor(n, dir);
+                    locals[tail++] = m;
+                }
+            }
+        }
+
+        /**
+         * Returns the number of moves from the node last searched from to a
+         * maze node in its cluster, or -1 if it was not reached.
+         */
+        int distance(int index) {
+            int l = local(index);
+            return (stamps[l] == stamp) ? distances[l] : -1;
+        }
+
+        /**
+         * Copies the path from a maze node reached by the last search to the
+         * node it was run from, leaving out the first node, into an array.
+         *
+         * @return the position after the last index copied
+         */
+        int walk(int index, int[] path, int position) {
+            for (int move = moves[local(index)]; move >= 0; move = moves[local(index)]) {
+                index = maze.neighbor(index, move);
+                path[position++] = index;
+            }
+            return position;
+        }
+
+        private int local(int index) {
+            return (maze.getY(index) - y0) * clusterSize + (maze.getX(index) - x0);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package js42721.maze.solve;
+
+import java.util.Arrays;
+
+import js42721.maze.Maze;
+import js42721.maze.OutOfBoundsException;
+
+/**
+ * Finds shortest paths by hierarchical search on a {@link ClusterGraph}. The
+ * start and goal are joined to the entrances of their clusters by searches
+ * confined to those clusters, and Dijkstra's algorithm then crosses the maze
+ * from entrance to entrance. Only the clusters on the path found are looked
+ * at again, when {@link #getPath(int[])} refines each step between two
+ * entrances of a cluster with a search of that cluster.
+ * <p>
+ * Like {@link JunctionSearch}, the priority queue is a ring of buckets, one
+ * per distance, covering the longest distance across a cluster, and the
+ * buffers are kept between solves. A search is not safe for use by several
+ * threads at once, but several searches can share a graph.
+ */
+public class ClusterSearch {
+    /* The parent entry of the entrances the search starts from. */
+    private static final int START = -1;
+
+    private final ClusterGraph graph;
+    private final ClusterGraph.Local local;
+    private int[] stamps = new int[0];
+    private int[] distances = new int[0];
+    private int[] parents = new int[0];
+    private int[] clusters = new int[0];
+    private int stamp;
+
+    /* The distances from the goal to the entrances of its cluster. */
+    private final int[] goalCosts;
+
+    /*
+     * The queue. A bucket holds a linked list of entries, and is only valid
+     * if it has been stamped during the current solve.
+     */
+    private final int bucketMask;
+    private final int[] bucketHeads;
+    private final int[] bucketStamps;
+    private int[] entryNodes = new int[64];
+    private int[] entryNext = new int[64];
+    private int entryCount;
+    private int pending;
+    private int[] chain = new int[16];
+
+    /* The last solve. */
+    private int start;
+    private int goal;
+    private int goalNode;
+    private int pathLength = -1;
+    private int expanded;
+
+    /**
+     * Creates a search of a graph.
+     *
+     * @param  graph the graph to search
+     * @throws NullPointerException if graph is null
+     */
+    public ClusterSearch(ClusterGraph graph) {
+        this.graph = graph;
+        local = new ClusterGraph.Local(graph);
+        int size = graph.getClusterSize();
+        goalCosts = new int[4 * size];
+        int buckets = Integer.highestOneBit(size * size) << 1;
+        bucketMask = buckets - 1;
+        bucketHeads = new int[buckets];
+        bucketStamps = new int[buckets];
+    }
+
+    /** Returns the graph being searched. */
+    public ClusterGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Finds a shortest path between two nodes of the maze the graph was built
+     * from.
+     *
+     * @param  start the index of the maze node to start from
+     * @param  goal  the index of the maze node to reach
+     * @return the number of moves on the path, or -1 if there is none
+     * @throws OutOfBoundsException if start or goal is not a node index
+     * @throws IllegalStateException if the walls of the maze have changed
+     *         since the graph was built or refreshed
+     */
+    public int solve(int start, int goal) {
+        Maze maze = graph.getMaze();
+        PathSolver.checkIndex(maze, start);
+        PathSolver.checkIndex(maze, goal);
+        if (graph.isStale()) {
+            throw new IllegalStateException("The maze has changed");
+        }
+        int nodeCount = graph.getNodeCount();
+        if (stamps.length < nodeCount) {
+            stamps = new int[nodeCount];
+            distances = new int[nodeCount];
+            parents = new int[nodeCount];
+            clusters = new int[nodeCount];
+        }
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(stamps, 0);
+            Arrays.fill(bucketStamps, 0);
+            stamp = 0;
+        }
+        ++stamp;
+        this.start = start;
+        this.goal = goal;
+        entryCount = 0;
+        pending = 0;
+        expanded = 0;
+        goalNode = -1;
+
+        /* The goal may be reached without leaving its cluster. */
+        int startCluster = graph.clusterOf(start);
+        int goalCluster = graph.clusterOf(goal);
+        int[] goalEntrances = graph.entrances[goalCluster];
+        local.search(goal);
+        for (int i = 0; i < goalEntrances.length; ++i) {
+            goalCosts[i] = local.distance(goalEntrances[i]);
+        }
+        int best = Integer.MAX_VALUE;
+        if (startCluster == goalCluster && local.distance(start) >= 0) {
+            best = local.distance(start);
+        }
+
+        int[] startEntrances = graph.entrances[startCluster];
+        local.search(start);
+        for (int i = 0; i < startEntrances.length; ++i) {
+            int distance = local.distance(startEntrances[i]);
+            if (distance >= 0) {
+                push(graph.offsets[startCluster] + i, startCluster, distance, START);
+            }
+        }
+
+        int distance = 0;
+        while (pending > 0 && distance < best) {
+            /* Takes a node from the bucket of the nearest distance. */
+            int b = distance & bucketMask;
+            if (bucketStamps[b] != stamp || bucketHeads[b] < 0) {
+                ++distance;
+                continue;
+            }
+            int entry = bucketHeads[b];
+            bucketHeads[b] = entryNext[entry];
+            --pending;
+            int n = entryNodes[entry];
+            if (distances[n] < distance) {
+                continue;
+            }
+            ++expanded;
+            int c = clusters[n];
+            int offset = graph.offsets[c];
+            int slot = n - offset;
+            if (c == goalCluster && goalCosts[slot] >= 0 && distance + goalCosts[slot] < best) {
+                best = distance + goalCosts[slot];
+                goalNode = n;
+            }
+
+            /* Crosses the cluster to its other entrances. */
+            char[] matrix = graph.matrices[c];
+            int count = graph.entrances[c].length;
+            for (int i = 0, row = slot * count; i < count; ++i) {
+                int cost = matrix[row + i];
+                if (i != slot && cost != ClusterGraph.UNREACHABLE) {
+                    push(offset + i, c, distance + cost, n);
+                }
+            }
+
+            /* Steps into the next clusters. */
+            int cell = graph.entrances[c][slot];
+            for (int open = maze.openNeighbors(cell); open != 0; open &= open - 1) {
+                int m = maze.neighbor(cell, Integer.numberOfTrailingZeros(open));
+                int next = graph.clusterOf(m);
+                if (next != c) {
+                    push(graph.offsets[next] + graph.slotOf(next, m), next, distance + 1, n);
+                }
+            }
+        }
+        pathLength = (best == Integer.MAX_VALUE) ? -1 : best;
+        return pathLength;
+    }
+
+    /** Returns the number of moves on the last path found, or -1 if there was none. */
+    public int getPathLength() {
+        return pathLength;
+    }
+
+    /** Returns the number of entrances settled during the last solve. */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    /**
+     * Copies the maze node indices of the last path found, from the start to
+     * the goal, into an array. The graph must not have been refreshed since
+     * the path was found.
+     *
+     * @param  path the array to fill, with room for {@link #getPathLength()}
+     *              + 1 indices
+     * @return the number of indices copied, or 0 if no path was found
+     * @throws ArrayIndexOutOfBoundsException if path is too short
+     */
+    public int getPath(int[] path) {
+        if (pathLength < 0) {
+            return 0;
+        }
+        if (path.length <= pathLength) {
+            throw new ArrayIndexOutOfBoundsException(pathLength);
+        }
+        int position = 0;
+        path[position++] = start;
+
+        /* Follows the entrances back to where the search started. */
+        int count = 0;
+        for (int n = goalNode; n != START; n = parents[n]) {
+            if (count == chain.length) {
+                chain = Arrays.copyOf(chain, 2 * count);
+            }
+            chain[count++] = n;
+        }
+
+        /*
+         * Refines each step within a cluster with a search of the cluster.
+         * A step between clusters is a single move.
+         */
+        int from = start;
+        int fromCluster = graph.clusterOf(start);
+        while (count > 0) {
+            int n = chain[--count];
+            int c = clusters[n];
+            int cell = graph.entrances[c][n - graph.offsets[c]];
+            if (c == fromCluster) {
+                local.search(cell);
+                position = local.walk(from, path, position);
+            } else {
+                path[position++] = cell;
+            }
+            from = cell;
+            fromCluster = c;
+        }
+        local.search(goal);
+        return local.walk(from, path, position);
+    }
+
+    /**
+     * Returns the maze node indices of the last path found, from the start to
+     * the goal.
+     *
+     * @return the path, or an empty array if no path was found
+     */
+    public int[] getPath() {
+        int[] path = new int[pathLength + 1];
+        getPath(path);
+        return path;
+    }
+
+    /** Queues an entrance unless it has already been reached by a path as short. */
+    private void push(int n, int cluster, int distance, int parent) {
+        if (stamps[n] == stamp && distances[n] <= distance) {
+            return;
+        }
+        stamps[n] = stamp;
+        distances[n] = distance;
+        parents[n] = parent;
+        clusters[n] = cluster;
+        if (entryCount == entryNodes.length) {
+            entryNodes = Arrays.copyOf(entryNodes, 2 * entryCount);
+            entryNext = Arrays.copyOf(entryNext, 2 * entryCount);
+        }
+        int b = distance & bucketMask;
+        if (bucketStamps[b] != stamp) {
+            bucketStamps[b] = stamp;
+            bucketHeads[b] = -1;
+        }
+        entryNodes[entryCount] = n;
+        entryNext[entryCount] = bucketHeads[b];
+        bucketHeads[b] = entryCount++;
+        ++pending;
+    }
+}
@@ -0,0 +1,294 @@
+package js42721.maze.solve;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import js42721.maze.Direction;
+import js42721.maze.Maze;
+import js42721.maze.OutOfBoundsException;
+import js42721.maze.Parallel;
+import js42721.maze.storage.MazeStorage;
+
+/**
+ * The number of moves from every node of a maze to the nearest of a set of
+ * goals, along with the first move of a shortest path. Once it has been
+ * computed, the best move from any node is a single lookup.
+ * <p>
+ * The distances are found by a breadth-first search over bitsets of the rows
+ * of the maze, 64 nodes to a word. Each level of the search moves the whole
+ * frontier at once with shifts and masks of the open sides, and only the
+ * words the frontier touches are looked at. A node's move is the reverse of
+ * the one that first reached it. The bitsets of open sides are
+ * extracted from the maze in bands of rows in parallel.
+ */
+public class DistanceField {
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    /* The moves kept for each node. */
+    private static final byte NORTH = 0;
+    private static final byte EAST = 1;
+    private static final byte SOUTH = 2;
+    private static final byte WEST = 3;
+    private static final byte NONE = -1;
+
+    /* The rows handed to one task when extracting the open sides. */
+    private static final int GRAIN = 64;
+
+    private final Maze maze;
+    private final int modCount;
+    private final int width;
+    private final int height;
+
+    /*
+     * The distance of each node in row-major order, or -1 if unreachable,
+     * and the ordinal of its first move towards the nearest goal.
+     */
+    private final int[] distances;
+    private final byte[] moves;
+    private int maxDistance;
+
+    /**
+     * Computes the distances to one goal.
+     *
+     * @param  maze  the maze
+     * @param  goalX the x-coordinate of the goal
+     * @param  goalY the y-coordinate of the goal
+     * @throws NullPointerException if maze is null
+     * @throws OutOfBoundsException if the goal is out of bounds
+     */
+    public DistanceField(Maze maze, int goalX, int goalY) {
+        this(maze, new int[] { maze.indexOf(goalX, goalY) });
+    }
+
+    /**
+     * Computes the distances to the nearest of several goals, using the
+     * common fork/join pool.
+     *
+     * @param  maze  the maze
+     * @param  goals the indices of the goal nodes
+     * @throws NullPointerException if an argument is null
+     * @throws OutOfBoundsException if a goal is not a node index
+     */
+    public DistanceField(Maze maze, int[] goals) {
+        this(maze, goals, 0);
+    }
+
+    /**
+     * Computes the distances to the nearest of several goals.
+     *
+     * @param  maze        the maze
+     * @param  goals       the indices of the goal nodes
+     * @param  parallelism the number of threads, or 0 for the common pool
+     * @throws NullPointerException if an argument is null
+     * @throws OutOfBoundsException if a goal is not a node index
+     * @throws IllegalArgumentException if parallelism is negative
+     */
+    public DistanceField(Maze maze, int[] goals, int parallelism) {
+        this.maze = maze;
+        modCount = maze.getModificationCount();
+        width = maze.getWidth();
+        height = maze.getHeight();
+        MazeStorage storage = maze.getStorage();
+        for (int goal : goals) {
+            if (goal < 0 || goal >= storage.size()
+                    || storage.getX(goal) >= width || storage.getY(goal) >= height) {
+                throw new OutOfBoundsException();
+            }
+        }
+        distances = new int[width * height];
+        moves = new byte[width * height];
+
+        /*
+         * Bit x of word y * wordsPerRow + (x >>> 6) of east is set if (x, y)
+         * is open to the east, and likewise for south. A move west from x
+         * needs the east bit of x - 1, and a move north from row y needs the
+         * south bit of row y - 1.
+         */
+        int wordsPerRow = (width + 63) >>> 6;
+        long[] east = new long[wordsPerRow * height];
+        long[] south = new long[wordsPerRow * height];
+        ForkJoinPool pool = Parallel.pool(parallelism);
+        try {
+            Parallel.forRange(pool, 0, height, GRAIN, (from, to) -> {
+                Arrays.fill(distances, from * width, to * width, -1);
+                Arrays.fill(moves, from * width, to * width, NONE);
+                for (int y = from; y < to; ++y) {
+                    int row = y * wordsPerRow;
+                    for (int x = 0; x < width; ++x) {
+                        int walls = storage.getWalls(storage.index(x, y));
+                        if ((walls & Direction.EAST.mask) == 0 && x < width - 1) {
+                            east[row + (x >>> 6)] |= 1L << x;
+                        }
+                        if ((walls & Direction.SOUTH.mask) == 0 && y < height - 1) {
+                            south[row + (x >>> 6)] |= 1L << x;
+                        }
+                    }
+                }
+            });
+        } finally {
+            Parallel.release(pool);
+        }
+        search(goals, east, south, wordsPerRow);
+    }
+
+    /**
+     * Searches level by level. The frontier is kept as a list of the words
+     * holding its nodes, along with their bits.
+     */
+    private void search(int[] goals, long[] east, long[] south, int wordsPerRow) {
+        Search search = new Search(east.length);
+        MazeStorage storage = maze.getStorage();
+        for (int goal : goals) {
+            int x = storage.getX(goal);
+            int y = storage.getY(goal);
+            search.add(y * wordsPerRow + (x >>> 6), y * width + (x & ~63), 1L << x, NONE);
+        }
+        search.advance();
+
+        while (search.frontierCount > 0) {
+            ++search.level;
+            long[] frontier = search.frontier;
+            int[] frontierWords = search.frontierWords;
+            for (int k = 0; k < search.frontierCount; ++k) {
+                int i = frontierWords[k];
+                int y = i / wordsPerRow;
+                int w = i - y * wordsPerRow;
+                int base = y * width + (w << 6);
+                long f = frontier[i];
+                long e = f & east[i];
+
+                /*
+                 * Moves in each direction, carrying over into the next words,
+                 * and remembers the move back for the nodes reached.
+                 */
+                search.add(i, base, e << 1, WEST);
+                search.add(i, base, (f >>> 1) & east[i], EAST);
+                if ((e >>> 63) != 0) {
+                    search.add(i + 1, base + 64, 1, WEST);
+                }
+                if (w > 0 && (f & 1) != 0 && east[i - 1] < 0) {
+                    search.add(i - 1, base - 64, 1L << 63, EAST);
+                }
+                search.add(i + wordsPerRow, base + width, f & south[i], NORTH);
+                if (y > 0) {
+                    search.add(i - wordsPerRow, base - width, f & south[i - wordsPerRow], SOUTH);
+                }
+            }
+            if (search.nextCount > 0) {
+                maxDistance = search.level;
+            }
+            search.advance();
+        }
+    }
+
+    /** The scratch state of a search. */
+    private class Search {
+        final long[] visited;
+        final int[] levels;
+        long[] frontier;
+        long[] next;
+        int[] frontierWords;
+        int[] nextWords;
+        int frontierCount;
+        int nextCount;
+        int level;
+
+        Search(int words) {
+            visited = new long[words];
+            levels = new int[words];
+            frontier = new long[words];
+            next = new long[words];
+            frontierWords = new int[64];
+            nextWords = new int[64];
+            Arrays.fill(levels, -1);
+        }
+
+        /**
+         * Adds the nodes of word i, whose first node is at base in row-major
+         * order, that have not been reached yet to the next frontier, and
+         * records their distance and their move back.
+         */
+        void add(int i, int base, long bits, byte move) {
+            if (bits == 0 || (bits &= ~visited[i]) == 0) {
+                return;
+            }
+            if (levels[i] != level) {
+                levels[i] = level;
+                next[i] = 0;
+                if (nextCount == nextWords.length) {
+                    nextWords = Arrays.copyOf(nextWords, 2 * nextCount);
+                }
+                nextWords[nextCount++] = i;
+            }
+            visited[i] |= bits;
+            next[i] |= bits;
+            for (; bits != 0; bits &= bits - 1) {
+                int n = base + Long.numberOfTrailingZeros(bits);
+                distances[n] = level;
+                moves[n] = move;
+            }
+        }
+
+        /** Makes the next frontier the current one. */
+        void advance() {
+            long[] tmp = frontier;
+            frontier = next;
+            next = tmp;
+            int[] tmpWords = frontierWords;
+            frontierWords = nextWords;
+            nextWords = tmpWords;
+            frontierCount = nextCount;
+            nextCount = 0;
+        }
+    }
+
+    /** Returns the maze the distances were computed for. */
+    public Maze getMaze() {
+        return maze;
+    }
+
+    /** Returns whether the walls of the maze have changed since the distances were computed. */
+    public boolean isStale() {
+        return maze.getModificationCount() != modCount;
+    }
+
+    /** Returns the distance of the node farthest from the goals that can reach one. */
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Returns the number of moves from a node to the nearest goal.
+     *
+     * @param  x the x-coordinate of the node
+     * @param  y the y-coordinate of the node
+     * @return the number of moves, or -1 if no goal can be reached
+     * @throws OutOfBoundsException if (x, y) is out of bounds
+     */
+    public int getDistance(int x, int y) {
+        checkBounds(x, y);
+        return distances[y * width + x];
+    }
+
+    /**
+     * Returns the first move of a shortest path from a node to the nearest
+     * goal.
+     *
+     * @param  x the x-coordinate of the node
+     * @param  y the y-coordinate of the node
+     * @return the move, or null if the node is a goal or no goal can be
+     *         reached from it
+     * @throws OutOfBoundsException if (x, y) is out of bounds
+     */
+    public Direction nextMove(int x, int y) {
+        checkBounds(x, y);
+        int move = moves[y * width + x];
+        return (move == NONE) ? null : DIRECTIONS[move];
+    }
+
+    private void checkBounds(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            throw new OutOfBoundsException("(" + x + ", " + y + ")");
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package js42721.maze.solve;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import js42721.maze.Maze;
+import js42721.maze.OutOfBoundsException;
+
+/**
+ * Keeps the distance fields of recently used mazes and goals, so that asking
+ * for the best move towards the same goals again costs a lookup rather than
+ * a search. A field is computed again when the walls of its maze have
+ * changed, as told by {@link Maze#getModificationCount()}. Changes made
+ * straight through a maze's storage do not show up there, so
+ * {@link #invalidate(Maze)} is there to drop the fields of a maze by hand.
+ * <p>
+ * Once full, the cache drops the field that was used least recently. A
+ * cache can be shared by several threads. Fields are computed outside its
+ * lock, so asking for one field does not hold up threads asking for others,
+ * and threads asking for the same field wait for it to be computed once.
+ */
+public class DistanceFieldCache {
+    private final Map<Key, FutureTask<DistanceField>> fields;
+    private int parallelism;
+
+    /* The single-goal field returned last, checked first to save building a key. */
+    private DistanceField last;
+    private FutureTask<DistanceField> lastTask;
+    private Key lastKey;
+
+    /**
+     * Creates a cache.
+     *
+     * @param  capacity the most fields to keep
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public DistanceFieldCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        fields = new LinkedHashMap<Key, FutureTask<DistanceField>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 4093164795733641418L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, FutureTask<DistanceField>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Sets the number of threads to compute fields with.
+     *
+     * @param  parallelism the number of threads, or 0 for the common pool
+     * @throws IllegalArgumentException if parallelism is negative
+     */
+    public synchronized void setParallelism(int parallelism) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("Parallelism must not be negative");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /** Returns the number of threads, or 0 for the common pool. */
+    public synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Returns the distances to one goal, computing them if they are not
+     * cached or the maze has changed.
+     *
+     * @param  maze  the maze
+     * @param  goalX the x-coordinate of the goal
+     * @param  goalY the y-coordinate of the goal
+     * @return the distance field
+     * @throws NullPointerException if maze is null
+     * @throws OutOfBoundsException if the goal is out of bounds
+     */
+    public DistanceField get(Maze maze, int goalX, int goalY) {
+        int goal = maze.indexOf(goalX, goalY);
+        synchronized (this) {
+            /* Looks the field up as well, to keep its place in the eviction order. */
+            if (last != null && last.getMaze() == maze && lastKey.goals[0] == goal
+                    && !last.isStale() && fields.get(lastKey) == lastTask) {
+                return last;
+            }
+        }
+        return get(maze, new int[] { goal });
+    }
+
+    /**
+     * Returns the distances to the nearest of several goals, computing them
+     * if they are not cached or the maze has changed. The order of the goals
+     * does not matter.
+     *
+     * @param  maze  the maze
+     * @param  goals the indices of the goal nodes
+     * @return the distance field
+     * @throws NullPointerException if an argument is null
+     * @throws OutOfBoundsException if a goal is not a node index
+     */
+    public DistanceField get(Maze maze, int[] goals) {
+        int[] sorted = goals.clone();
+        Arrays.sort(sorted);
+        for (int goal : sorted) {
+            PathSolver.checkIndex(maze, goal);
+        }
+        Key key = new Key(maze, sorted);
+        while (true) {
+            FutureTask<DistanceField> task;
+            boolean owner = false;
+            synchronized (this) {
+                task = fields.get(key);
+                if (task == null || isStale(task)) {
+                    int parallelism = this.parallelism;
+                    task = new FutureTask<DistanceField>(() -> new DistanceField(maze, sorted, parallelism));
+                    fields.put(key, task);
+                    owner = true;
+                }
+            }
+            if (owner) {
+                task.run();
+            }
+            DistanceField field;
+            try {
+                field = await(task);
+            } catch (RuntimeException | Error e) {
+                synchronized (this) {
+                    fields.remove(key, task);
+                }
+                throw e;
+            }
+
+            /* A field computed by another thread may predate a change of the walls. */
+            if (!owner && field.isStale()) {
+                continue;
+            }
+            if (sorted.length == 1) {
+                synchronized (this) {
+                    last = field;
+                    lastTask = task;
+                    lastKey = key;
+                }
+            }
+            return field;
+        }
+    }
+
+    /** Returns whether a task has finished with a field that is out of date, or has failed. */
+    private static boolean isStale(FutureTask<DistanceField> task) {
+        if (!task.isDone()) {
+            return false;
+        }
+        try {
+            return await(task).isStale();
+        } catch (RuntimeException e) {
+            return true;
+        }
+    }
+
+    /** Waits for a task to finish, rethrowing whatever it failed with. */
+    private static DistanceField await(FutureTask<DistanceField> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Drops the fields of a maze, so that they are computed again when next
+     * asked for.
+     *
+     * @param  maze the maze
+     */
+    public synchronized void invalidate(Maze maze) {
+        for (Iterator<Key> it = fields.keySet().iterator(); it.hasNext();) {
+            if (it.next().maze == maze) {
+                it.remove();
+            }
+        }
+        if (last != null && last.getMaze() == maze) {
+            last = null;
+        }
+    }
+
+    /** Drops every field. */
+    public synchronized void invalidate() {
+        fields.clear();
+        last = null;
+    }
+
+    /** Identifies a field by its maze, compared by identity, and its sorted goals. */
+    private static final class Key {
+        final Maze maze;
+        final int[] goals;
+
+        Key(Maze maze, int[] goals) {
+            this.maze = maze;
+            this.goals = goals;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(maze) * 31 + Arrays.hashCode(goals);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key k = (Key) obj;
+                return maze == k.maze && Arrays.equals(goals, k.goals);
+            }
+            return false;
+        }
+    }
+}
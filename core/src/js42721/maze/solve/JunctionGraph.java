@@ -0,0 +1,388 @@
+package js42721.maze.solve;
+
+import java.util.Arrays;
+
+import js42721.maze.Maze;
+import js42721.maze.OutOfBoundsException;
+
+/**
+ * A graph of the junctions of a maze, with the corridors between them
+ * contracted into weighted edges. Its nodes are the maze nodes that do not
+ * have exactly two open sides, which are the junctions and dead ends, along
+ * with any chosen endpoints. A loop of corridor that meets no other node gets
+ * one of its nodes as well. The edges are the corridors, weighted by the
+ * number of moves along them.
+ * <p>
+ * Most nodes of a maze made by a random walk lie inside corridors, so the
+ * graph has far fewer nodes than the maze. It is kept in compressed sparse
+ * row form: the edges leaving graph node k are those from
+ * {@link #getEdgeStart(int) getEdgeStart(k)} up to getEdgeStart(k + 1), in
+ * the order of their directions. Each corridor appears as one edge from each
+ * of its ends.
+ * <p>
+ * Maze nodes inside a corridor are not stored. {@link #getCorridor(int)} and
+ * {@link #getOffset(int)} find them by walking to the end of the corridor, so
+ * the graph reads the maze it was built from and must be rebuilt if the walls
+ * change.
+ */
+public class JunctionGraph {
+    private final Maze maze;
+    private final int modCount;
+
+    /* The maze node indices of the graph nodes, rising in each of two runs. */
+    private final int[] cells;
+    private final int nodeCount;
+    private final int ringStart;
+
+    /* Whether each maze node is a graph node. */
+    private final long[] nodeBits;
+
+    final int[] edgeStart;
+    final int[] edgeTarget;
+    final int[] edgeLength;
+    final int[] edgeReverse;
+    final byte[] edgeDirection;
+    private final int maxLength;
+
+    /**
+     * Builds the graph of a maze.
+     *
+     * @param  maze the maze
+     * @throws NullPointerException if maze is null
+     */
+    public JunctionGraph(Maze maze) {
+        this(maze, new int[0]);
+    }
+
+    /**
+     * Builds the graph of a maze, making graph nodes of the specified maze
+     * nodes even if they lie inside corridors. Searches between those nodes
+     * then start and end at graph nodes.
+     *
+     * @param  maze      the maze
+     * @param  endpoints the indices of the maze nodes to include
+     * @throws NullPointerException if an argument is null
+     * @throws OutOfBoundsException if an endpoint is not a node index
+     */
+    public JunctionGraph(Maze maze, int... endpoints) {
+        this.maze = maze;
+        modCount = maze.getModificationCount();
+        int size = maze.getIndexCount();
+        long[] nodeBits = new long[(size + 63) >>> 6];
+        for (int n : endpoints) {
+            PathSolver.checkIndex(maze, n);
+            nodeBits[n >>> 6] |= 1L << n;
+        }
+        this.nodeBits = nodeBits;
+
+        /*
+         * Finds the nodes in index order, so that they can be looked up by
+         * binary search, and gives each an edge per open side.
+         */
+        int[][] found = { new int[64] };
+        int[] count = new int[1];
+        maze.forEachCell((index, x, y, walls) -> {
+            if (Integer.bitCount(maze.openNeighbors(index)) != 2
+                    || (nodeBits[index >>> 6] & (1L << index)) != 0) {
+                nodeBits[index >>> 6] |= 1L << index;
+                if (count[0] == found[0].length) {
+                    found[0] = Arrays.copyOf(found[0], 2 * count[0]);
+                }
+                found[0][count[0]++] = index;
+            }
+        });
+        int nodeCount = count[0];
+        int[] cells = Arrays.copyOf(found[0], nodeCount);
+        int[] edgeStart = new int[nodeCount + 1];
+        for (int k = 0; k < nodeCount; ++k) {
+            edgeStart[k + 1] = edgeStart[k] + Integer.bitCount(maze.openNeighbors(cells[k]));
+        }
+        int edgeCount = edgeStart[nodeCount];
+        int[] edgeTarget = new int[edgeCount];
+        int[] edgeLength = new int[edgeCount];
+        int[] edgeReverse = new int[edgeCount];
+        byte[] edgeDirection = new byte[edgeCount];
+        Arrays.fill(edgeTarget, -1);
+
+        /*
+         * Walks each corridor once, from its first end to be reached, and
+         * fills in the edges from both of its ends.
+         */
+        long covered = 0;
+        for (int k = 0; k < nodeCount; ++k) {
+            int open = maze.openNeighbors(cells[k]);
+            for (int e = edgeStart[k]; open != 0; open &= open - 1, ++e) {
+                int d = Integer.numberOfTrailingZeros(open);
+                edgeDirection[e] = (byte) d;
+                if (edgeTarget[e] >= 0) {
+                    continue;
+                }
+                int n = maze.neighbor(cells[k], d);
+                int length = 1;
+                while (!isNode(n)) {
+                    d = Integer.numberOfTrailingZeros(maze.openNeighbors(n) & ~(1 << ((d + 2) & 3)));
+                    n = maze.neighbor(n, d);
+                    ++length;
+                }
+                int t = Arrays.binarySearch(cells, 0, nodeCount, n);
+                int back = slot(edgeStart[t], maze.openNeighbors(n), (d + 2) & 3);
+                edgeTarget[e] = t;
+                edgeLength[e] = length;
+                edgeReverse[e] = back;
+                edgeTarget[back] = k;
+                edgeLength[back] = length;
+                edgeReverse[back] = e;
+                covered += length - 1;
+            }
+        }
+
+        /*
+         * The nodes left over lie on loops that meet no other node. Each loop
+         * gets its first node in index order, with an edge each way around.
+         */
+        if (covered + nodeCount < countCells(maze)) {
+            long[] seen = new long[nodeBits.length];
+            for (int k = 0; k < nodeCount; ++k) {
+                int open = maze.openNeighbors(cells[k]);
+                for (; open != 0; open &= open - 1) {
+                    markCorridor(cells[k], Integer.numberOfTrailingZeros(open), seen);
+                }
+            }
+            int[][] rings = { new int[0] };
+            int[] ringCount = new int[1];
+            maze.forEachCell((index, x, y, walls) -> {
+                if ((nodeBits[index >>> 6] & (1L << index)) == 0
+                        && (seen[index >>> 6] & (1L << index)) == 0) {
+                    nodeBits[index >>> 6] |= 1L << index;
+                    markCorridor(index, Integer.numberOfTrailingZeros(maze.openNeighbors(index)), seen);
+                    if (ringCount[0] == rings[0].length) {
+                        rings[0] = Arrays.copyOf(rings[0], Math.max(4, 2 * ringCount[0]));
+                    }
+                    rings[0][ringCount[0]++] = index;
+                }
+            });
+            int total = nodeCount + ringCount[0];
+            cells = Arrays.copyOf(cells, total);
+            edgeStart = Arrays.copyOf(edgeStart, total + 1);
+            edgeTarget = Arrays.copyOf(edgeTarget, edgeCount + 2 * ringCount[0]);
+            edgeLength = Arrays.copyOf(edgeLength, edgeTarget.length);
+            edgeReverse = Arrays.copyOf(edgeReverse, edgeTarget.length);
+            edgeDirection = Arrays.copyOf(edgeDirection, edgeTarget.length);
+            for (int i = 0; i < ringCount[0]; ++i) {
+                int k = nodeCount + i;
+                int n = rings[0][i];
+                int e = edgeStart[k];
+                cells[k] = n;
+                edgeStart[k + 1] = e + 2;
+                int open = maze.openNeighbors(n);
+                int length = markCorridor(n, Integer.numberOfTrailingZeros(open), null);
+                edgeTarget[e] = edgeTarget[e + 1] = k;
+                edgeLength[e] = edgeLength[e + 1] = length;
+                edgeReverse[e] = e + 1;
+                edgeReverse[e + 1] = e;
+                edgeDirection[e] = (byte) Integer.numberOfTrailingZeros(open);
+                edgeDirection[e + 1] = (byte) (31 - Integer.numberOfLeadingZeros(open));
+            }
+        }
+
+        this.cells = cells;
+        this.nodeCount = cells.length;
+        this.ringStart = nodeCount;
+        this.edgeStart = edgeStart;
+        this.edgeTarget = edgeTarget;
+        this.edgeLength = edgeLength;
+        this.edgeReverse = edgeReverse;
+        this.edgeDirection = edgeDirection;
+        int maxLength = 0;
+        for (int length : edgeLength) {
+            maxLength = Math.max(maxLength, length);
+        }
+        this.maxLength = maxLength;
+    }
+
+    /** Returns the maze the graph was built from. */
+    public Maze getMaze() {
+        return maze;
+    }
+
+    /** Returns whether the walls of the maze have changed since the graph was built. */
+    public boolean isStale() {
+        return maze.getModificationCount() != modCount;
+    }
+
+    /** Returns the number of graph nodes. */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /** Returns the number of edges, which is twice the number of corridors. */
+    public int getEdgeCount() {
+        return edgeTarget.length;
+    }
+
+    /** Returns the number of moves along the longest corridor. */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /** Returns the maze node index of a graph node. */
+    public int getCell(int node) {
+        return cells[node];
+    }
+
+    /**
+     * Returns the graph node of a maze node.
+     *
+     * @param  index the maze node index
+     * @return the graph node, or -1 if the maze node lies inside a corridor
+     * @throws ArrayIndexOutOfBoundsException if index is not a node index
+     */
+    public int nodeOf(int index) {
+        return isNode(index) ? findNode(index) : -1;
+    }
+
+    /**
+     * Returns the first edge leaving a graph node. The edges leaving node k
+     * end where those of node k + 1 start, and getEdgeStart(getNodeCount())
+     * is the number of edges.
+     */
+    public int getEdgeStart(int node) {
+        return edgeStart[node];
+    }
+
+    /** Returns the graph node an edge leads to. */
+    public int getTarget(int edge) {
+        return edgeTarget[edge];
+    }
+
+    /** Returns the number of moves along an edge. */
+    public int getLength(int edge) {
+        return edgeLength[edge];
+    }
+
+    /** Returns the ordinal of the direction in which an edge leaves its node. */
+    public int getDirection(int edge) {
+        return edgeDirection[edge];
+    }
+
+    /** Returns the edge going the other way along the same corridor. */
+    public int getReverse(int edge) {
+        return edgeReverse[edge];
+    }
+
+    /**
+     * Returns the corridor holding a maze node, as one of its two edges. This
+     * walks to the end of the corridor.
+     *
+     * @param  index the maze node index
+     * @return the edge, or -1 if the maze node is a graph node
+     * @throws IllegalStateException if the walls of the maze have changed
+     */
+    public int getCorridor(int index) {
+        long location = locate(index);
+        return (location < 0) ? -1 : (int) (location >>> 32);
+    }
+
+    /**
+     * Returns the number of moves from the start of the edge returned by
+     * {@link #getCorridor(int)} to a maze node. This walks to the end of the
+     * corridor.
+     *
+     * @param  index the maze node index
+     * @return the number of moves, or 0 if the maze node is a graph node
+     * @throws IllegalStateException if the walls of the maze have changed
+     */
+    public int getOffset(int index) {
+        long location = locate(index);
+        return (location < 0) ? 0 : (int) location;
+    }
+
+    /**
+     * Walks from a maze node inside a corridor, towards the side of its first
+     * open direction, to a graph node. Returns the edge from there in the high
+     * and the number of moves in the low 32 bits, or -1 for a graph node.
+     */
+    long locate(int index) {
+        if (isStale()) {
+            throw new IllegalStateException("The maze has changed");
+        }
+        if (isNode(index)) {
+            return -1;
+        }
+        int d = Integer.numberOfTrailingZeros(maze.openNeighbors(index));
+        int n = maze.neighbor(index, d);
+        int offset = 1;
+        while (!isNode(n)) {
+            d = Integer.numberOfTrailingZeros(maze.openNeighbors(n) & ~(1 << ((d + 2) & 3)));
+            n = maze.neighbor(n, d);
+            ++offset;
+        }
+        int k = findNode(n);
+        int edge = edgeOf(k, (d + 2) & 3);
+        return ((long) edge << 32) | offset;
+    }
+
+    /** Returns the edge leaving a graph node in a direction. */
+    int edgeOf(int node, int dir) {
+        int e = edgeStart[node];
+        while (edgeDirection[e] != dir) {
+            ++e;
+        }
+        return e;
+    }
+
+    /**
+     * Moves along a corridor from a maze node, writing the maze nodes passed
+     * into an array. Returns the position after the last one written.
+     */
+    int walk(int index, int dir, int moves, int[] path, int position) {
+        for (int i = 0; i < moves; ++i) {
+            if (i > 0) {
+                dir = Integer.numberOfTrailingZeros(maze.openNeighbors(index) & ~(1 << ((dir + 2) & 3)));
+            }
+            index = maze.neighbor(index, dir);
+            path[position++] = index;
+        }
+        return position;
+    }
+
+    private boolean isNode(int index) {
+        return (nodeBits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /** Finds a graph node by its maze node index. */
+    private int findNode(int index) {
+        int k = Arrays.binarySearch(cells, 0, ringStart, index);
+        if (k < 0) {
+            k = Arrays.binarySearch(cells, ringStart, nodeCount, index);
+        }
+        return k;
+    }
+
+    /**
+     * Walks a corridor from a maze node until a graph node, marking the maze
+     * nodes passed if seen is not null. Returns the number of moves.
+     */
+    private int markCorridor(int index, int dir, long[] seen) {
+        int n = maze.neighbor(index, dir);
+        int length = 1;
+        while (!isNode(n)) {
+            if (seen != null) {
+                seen[n >>> 6] |= 1L << n;
+            }
+            dir = Integer.numberOfTrailingZeros(maze.openNeighbors(n) & ~(1 << ((dir + 2) & 3)));
+            n = maze.neighbor(n, dir);
+            ++length;
+        }
+        return length;
+    }
+
+    /** Returns the position of the edge in a direction among those of a node. */
+    private static int slot(int start, int open, int dir) {
+        return start + Integer.bitCount(open & ((1 << dir) - 1));
+    }
+
+    private static long countCells(Maze maze) {
+        return (long) maze.getWidth() * maze.getHeight();
+    }
+}
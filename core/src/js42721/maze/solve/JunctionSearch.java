@@ -0,0 +1,302 @@
+package js42721.maze.solve;
+
+import java.util.Arrays;
+
+import js42721.maze.OutOfBoundsException;
+
+/**
+ * Finds shortest paths with Dijkstra's algorithm on a {@link JunctionGraph}.
+ * Whole corridors are crossed in one step, so the search looks at far fewer
+ * nodes than a search of the maze itself. A start or goal inside a corridor
+ * is joined to the graph through the two ends of its corridor.
+ * <p>
+ * Since the distances are whole numbers of moves, the priority queue is a
+ * ring of buckets, one per distance, covering the length of the longest
+ * corridor. Taking the nearest node is then a matter of moving on to the next
+ * bucket that is not empty, rather than of reordering a heap. Like the other
+ * buffers, the queue is kept between solves, so solving again does not
+ * allocate. A search is not safe for use by several threads at once, but
+ * several searches can share a graph.
+ */
+public class JunctionSearch {
+    /* Parent entries of the nodes the search starts from. */
+    private static final int START = -1;
+    private static final int SOURCE_SIDE = -2;
+    private static final int TARGET_SIDE = -3;
+
+    private final JunctionGraph graph;
+    private final int[] stamps;
+    private final int[] distances;
+    private final int[] parentEdges;
+    private int stamp;
+
+    /*
+     * The queue. A bucket holds a linked list of entries, and is only valid
+     * if it has been stamped during the current solve.
+     */
+    private final int bucketMask;
+    private final int[] bucketHeads;
+    private final int[] bucketStamps;
+    private int[] entryNodes = new int[64];
+    private int[] entryNext = new int[64];
+    private int entryCount;
+    private int pending;
+    private int[] chain = new int[16];
+
+    /* The last solve. */
+    private int start;
+    private int startEdge;
+    private int startOffset;
+    private int goalEdge;
+    private int goalOffset;
+    private int goalNode;
+    private int goalSide;
+    private int pathLength = -1;
+    private int expanded;
+
+    /**
+     * Creates a search of a graph.
+     *
+     * @param  graph the graph to search
+     * @throws NullPointerException if graph is null
+     */
+    public JunctionSearch(JunctionGraph graph) {
+        this.graph = graph;
+        int nodeCount = graph.getNodeCount();
+        stamps = new int[nodeCount];
+        distances = new int[nodeCount];
+        parentEdges = new int[nodeCount];
+        int buckets = Integer.highestOneBit(graph.getMaxLength() | 1) << 1;
+        bucketMask = buckets - 1;
+        bucketHeads = new int[buckets];
+        bucketStamps = new int[buckets];
+    }
+
+    /** Returns the graph being searched. */
+    public JunctionGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Finds a shortest path between two nodes of the maze the graph was built
+     * from.
+     *
+     * @param  start the index of the maze node to start from
+     * @param  goal  the index of the maze node to reach
+     * @return the number of moves on the path, or -1 if there is none
+     * @throws OutOfBoundsException if start or goal is not a node index
+     * @throws IllegalStateException if the walls of the maze have changed
+     */
+    public int solve(int start, int goal) {
+        PathSolver.checkIndex(graph.getMaze(), start);
+        PathSolver.checkIndex(graph.getMaze(), goal);
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(stamps, 0);
+            Arrays.fill(bucketStamps, 0);
+            stamp = 0;
+        }
+        ++stamp;
+        this.start = start;
+        entryCount = 0;
+        pending = 0;
+        expanded = 0;
+        goalNode = -1;
+
+        long startLocation = graph.locate(start);
+        long goalLocation = graph.locate(goal);
+        startEdge = (int) (startLocation >> 32);
+        startOffset = (int) startLocation;
+        goalEdge = (int) (goalLocation >> 32);
+        goalOffset = (int) goalLocation;
+
+        /* A start inside a corridor can leave it by either end. */
+        if (startLocation < 0) {
+            push(graph.nodeOf(start), 0, START);
+        } else {
+            int length = graph.edgeLength[startEdge];
+            push(source(startEdge), startOffset, SOURCE_SIDE);
+            push(graph.edgeTarget[startEdge], length - startOffset, TARGET_SIDE);
+        }
+
+        /* The goal may be reached without leaving the start's corridor. */
+        int best = Integer.MAX_VALUE;
+        int target = (goalLocation < 0) ? graph.nodeOf(goal) : -1;
+        if (start == goal) {
+            best = 0;
+        } else if (startLocation >= 0 && goalLocation >= 0
+                && (goalEdge == startEdge || goalEdge == graph.edgeReverse[startEdge])) {
+            best = Math.abs(startOffset - offsetAlongStart());
+        }
+
+        int distance = 0;
+        while (pending > 0 && distance < best) {
+            /* Takes a node from the bucket of the nearest distance. */
+            int b = distance & bucketMask;
+            if (bucketStamps[b] != stamp || bucketHeads[b] < 0) {
+                ++distance;
+                continue;
+            }
+            int entry = bucketHeads[b];
+            bucketHeads[b] = entryNext[entry];
+            --pending;
+            int n = entryNodes[entry];
+            if (distances[n] < distance) {
+                continue;
+            }
+            ++expanded;
+
+            /* Checks whether the goal, or its corridor, has been reached. */
+            if (n == target) {
+                best = distance;
+                goalNode = n;
+                goalSide = START;
+                break;
+            }
+            if (target < 0) {
+                int length = graph.edgeLength[goalEdge];
+                if (n == source(goalEdge) && distance + goalOffset < best) {
+                    best = distance + goalOffset;
+                    goalNode = n;
+                    goalSide = SOURCE_SIDE;
+                }
+                if (n == graph.edgeTarget[goalEdge] && distance + length - goalOffset < best) {
+                    best = distance + length - goalOffset;
+                    goalNode = n;
+                    goalSide = TARGET_SIDE;
+                }
+            }
+
+            int end = graph.edgeStart[n + 1];
+            for (int e = graph.edgeStart[n]; e < end; ++e) {
+                push(graph.edgeTarget[e], distance + graph.edgeLength[e], e);
+            }
+        }
+        pathLength = (best == Integer.MAX_VALUE) ? -1 : best;
+        return pathLength;
+    }
+
+    /** Returns the number of moves on the last path found, or -1 if there was none. */
+    public int getPathLength() {
+        return pathLength;
+    }
+
+    /** Returns the number of graph nodes settled during the last solve. */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    /**
+     * Copies the maze node indices of the last path found, from the start to
+     * the goal, into an array.
+     *
+     * @param  path the array to fill, with room for {@link #getPathLength()}
+     *              + 1 indices
+     * @return the number of indices copied, or 0 if no path was found
+     * @throws ArrayIndexOutOfBoundsException if path is too short
+     */
+    public int getPath(int[] path) {
+        if (pathLength < 0) {
+            return 0;
+        }
+        if (path.length <= pathLength) {
+            throw new ArrayIndexOutOfBoundsException(pathLength);
+        }
+        int position = 0;
+        path[position++] = start;
+
+        /* Stays inside the start's corridor. */
+        if (goalNode < 0) {
+            if (pathLength > 0) {
+                int dir = (offsetAlongStart() < startOffset) ? firstOpen(start) : lastOpen(start);
+                position = graph.walk(start, dir, pathLength, path, position);
+            }
+            return position;
+        }
+
+        /* Follows the edges back to where the search started. */
+        int count = 0;
+        int n = goalNode;
+        while (parentEdges[n] >= 0) {
+            if (count == chain.length) {
+                chain = Arrays.copyOf(chain, 2 * count);
+            }
+            int e = parentEdges[n];
+            chain[count++] = e;
+            n = source(e);
+        }
+
+        if (parentEdges[n] == SOURCE_SIDE) {
+            position = graph.walk(start, firstOpen(start), startOffset, path, position);
+        } else if (parentEdges[n] == TARGET_SIDE) {
+            int length = graph.edgeLength[startEdge];
+            position = graph.walk(start, lastOpen(start), length - startOffset, path, position);
+        }
+        while (count > 0) {
+            int e = chain[--count];
+            int from = graph.getCell(source(e));
+            position = graph.walk(from, graph.edgeDirection[e], graph.edgeLength[e], path, position);
+        }
+        int from = graph.getCell(goalNode);
+        if (goalSide == SOURCE_SIDE) {
+            position = graph.walk(from, graph.edgeDirection[goalEdge], goalOffset, path, position);
+        } else if (goalSide == TARGET_SIDE) {
+            int back = graph.edgeReverse[goalEdge];
+            int length = graph.edgeLength[goalEdge];
+            position = graph.walk(from, graph.edgeDirection[back], length - goalOffset, path, position);
+        }
+        return position;
+    }
+
+    /**
+     * Returns the maze node indices of the last path found, from the start to
+     * the goal.
+     *
+     * @return the path, or an empty array if no path was found
+     */
+    public int[] getPath() {
+        int[] path = new int[pathLength + 1];
+        getPath(path);
+        return path;
+    }
+
+    /** Returns the goal's number of moves from the start of the start's corridor edge. */
+    private int offsetAlongStart() {
+        return (goalEdge == startEdge) ? goalOffset : graph.edgeLength[startEdge] - goalOffset;
+    }
+
+    private int firstOpen(int index) {
+        return Integer.numberOfTrailingZeros(graph.getMaze().openNeighbors(index));
+    }
+
+    private int lastOpen(int index) {
+        return 31 - Integer.numberOfLeadingZeros(graph.getMaze().openNeighbors(index));
+    }
+
+    /** Returns the graph node an edge leaves. */
+    private int source(int edge) {
+        return graph.edgeTarget[graph.edgeReverse[edge]];
+    }
+
+    /** Queues a graph node unless it has already been reached by a path as short. */
+    private void push(int n, int distance, int parent) {
+        if (stamps[n] == stamp && distances[n] <= distance) {
+            return;
+        }
+        stamps[n] = stamp;
+        distances[n] = distance;
+        parentEdges[n] = parent;
+        if (entryCount == entryNodes.length) {
+            entryNodes = Arrays.copyOf(entryNodes, 2 * entryCount);
+            entryNext = Arrays.copyOf(entryNext, 2 * entryCount);
+        }
+        int b = distance & bucketMask;
+        if (bucketStamps[b] != stamp) {
+            bucketStamps[b] = stamp;
+            bucketHeads[b] = -1;
+        }
+        entryNodes[entryCount] = n;
+        entryNext[entryCount] = bucketHeads[b];
+        bucketHeads[b] = entryCount++;
+        ++pending;
+    }
+}
@@ -0,0 +1,206 @@
+package js42721.maze.solve;
+
+import java.util.Arrays;
+
+import js42721.maze.Maze;
+import js42721.maze.OutOfBoundsException;
+import js42721.maze.coordinates.Point;
+
+/**
+ * Finds shortest paths between nodes of a maze, moving only between adjacent
+ * nodes that have no wall between them. Nodes are referred to by the indices
+ * of {@link Maze#indexOf(int, int)}.
+ * <p>
+ * A solver keeps its buffers between solves and only grows them when a maze
+ * has more nodes than any before it, so solving again does not allocate.
+ * Nodes are marked as reached by stamping them with a number that changes
+ * with each solve, which saves clearing the buffers. A solver is not safe
+ * for use by several threads at once; each thread should have its own.
+ */
+public abstract class PathSolver {
+    /*
+     * The stamp of the nodes reached from the start in the current solve. The
+     * nodes reached from the goal, if any, get the stamp after it.
+     */
+    int stamp;
+    int[] stamps = new int[0];
+
+    /* The ordinal of the direction towards the node a node was reached from. */
+    byte[] parents = new byte[0];
+
+    /* The number of moves to a node from where it was reached. */
+    int[] costs = new int[0];
+
+    /* The nodes where the paths from the start and from the goal meet. */
+    int meetForward;
+    int meetBackward;
+
+    private Maze maze;
+    private int start;
+    private int goal;
+    private int pathLength = -1;
+    private int expanded;
+
+    /**
+     * Finds a shortest path between two nodes.
+     *
+     * @param  maze  the maze to solve
+     * @param  start the index of the node to start from
+     * @param  goal  the index of the node to reach
+     * @return the number of moves on the path, or -1 if there is none
+     * @throws NullPointerException if maze is null
+     * @throws OutOfBoundsException if start or goal is not a node index
+     */
+    public int solve(Maze maze, int start, int goal) {
+        checkIndex(maze, start);
+        checkIndex(maze, goal);
+        int size = maze.getIndexCount();
+        if (stamps.length < size) {
+            stamps = new int[size];
+            parents = new byte[size];
+            costs = new int[size];
+            stamp = 0;
+        }
+        if (stamp > Integer.MAX_VALUE - 2) {
+            Arrays.fill(stamps, 0);
+            stamp = 0;
+        }
+        stamp += 2;
+        this.maze = maze;
+        this.start = start;
+        this.goal = goal;
+        meetForward = goal;
+        meetBackward = -1;
+        expanded = 0;
+        pathLength = search(maze, start, goal);
+        return pathLength;
+    }
+
+    /**
+     * Finds a shortest path between two nodes.
+     *
+     * @param  maze   the maze to solve
+     * @param  startX the x-coordinate of the node to start from
+     * @param  startY the y-coordinate of the node to start from
+     * @param  goalX  the x-coordinate of the node to reach
+     * @param  goalY  the y-coordinate of the node to reach
+     * @return the number of moves on the path, or -1 if there is none
+     * @throws NullPointerException if maze is null
+     * @throws OutOfBoundsException if either node is out of bounds
+     */
+    public int solve(Maze maze, int startX, int startY, int goalX, int goalY) {
+        return solve(maze, maze.indexOf(startX, startY), maze.indexOf(goalX, goalY));
+    }
+
+    /**
+     * Finds a shortest path between two nodes.
+     *
+     * @param  maze  the maze to solve
+     * @param  start the node to start from
+     * @param  goal  the node to reach
+     * @return the number of moves on the path, or -1 if there is none
+     * @throws NullPointerException if an argument is null
+     * @throws OutOfBoundsException if either node is out of bounds
+     */
+    public int solve(Maze maze, Point start, Point goal) {
+        return solve(maze, start.getX(), start.getY(), goal.getX(), goal.getY());
+    }
+
+    /**
+     * Searches for a shortest path once the buffers are ready. Subclasses
+     * stamp the nodes they reach, record their parents and count the nodes
+     * they expand with {@link #expand()}. If the path does not end at the goal
+     * from the start's side, the nodes where it crosses over are stored in
+     * meetForward and meetBackward.
+     *
+     * @return the number of moves on the path, or -1 if there is none
+     */
+    abstract int search(Maze maze, int start, int goal);
+
+    /** Counts an expanded node. */
+    final void expand() {
+        ++expanded;
+    }
+
+    /** Returns the number of moves on the last path found, or -1 if there was none. */
+    public int getPathLength() {
+        return pathLength;
+    }
+
+    /**
+     * Returns the number of nodes whose neighbors were looked at during the
+     * last solve, as a measure of the work done.
+     */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    /**
+     * Copies the node indices of the last path found, from the start to the
+     * goal, into an array.
+     *
+     * @param  path the array to fill, with room for {@link #getPathLength()}
+     *              + 1 indices
+     * @return the number of indices copied, or 0 if no path was found
+     * @throws IllegalStateException if nothing has been solved yet
+     * @throws ArrayIndexOutOfBoundsException if path is too short
+     */
+    public int getPath(int[] path) {
+        if (maze == null) {
+            throw new IllegalStateException("Nothing has been solved");
+        }
+        if (pathLength < 0) {
+            return 0;
+        }
+        if (path.length <= pathLength) {
+            throw new ArrayIndexOutOfBoundsException(pathLength);
+        }
+
+        /* Walks back to the start, filling in the first part from its end. */
+        int i = costs[meetForward];
+        for (int n = meetForward; n != start; n = parentOf(n)) {
+            path[i--] = n;
+        }
+        path[0] = start;
+
+        /* Walks on to the goal if the path was also searched from there. */
+        if (meetBackward >= 0) {
+            i = costs[meetForward] + 1;
+            for (int n = meetBackward; n != goal; n = parentOf(n)) {
+                path[i++] = n;
+            }
+            path[i] = goal;
+        }
+        return pathLength + 1;
+    }
+
+    /**
+     * Returns the node indices of the last path found, from the start to the
+     * goal.
+     *
+     * @return the path, or an empty array if no path was found
+     * @throws IllegalStateException if nothing has been solved yet
+     */
+    public int[] getPath() {
+        int[] path = new int[pathLength + 1];
+        getPath(path);
+        return path;
+    }
+
+    private int parentOf(int n) {
+        return maze.neighbor(n, parents[n]);
+    }
+
+    /**
+     * Checks that an index is that of a node of a maze, and not out of range
+     * or one of the indices a storage pads the maze with.
+     *
+     * @throws OutOfBoundsException if index is not a node index
+     */
+    static void checkIndex(Maze maze, int index) {
+        if (index < 0 || index >= maze.getIndexCount()
+                || maze.getX(index) >= maze.getWidth() || maze.getY(index) >= maze.getHeight()) {
+            throw new OutOfBoundsException();
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package js42721.maze.solve;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import js42721.maze.Maze;
+import js42721.maze.OutOfBoundsException;
+import js42721.maze.Parallel;
+import js42721.maze.storage.MazeStorage;
+
+/**
+ * Answers distance queries on a perfect maze in constant time. A perfect maze
+ * is a spanning tree, so the distance between two nodes is the sum of their
+ * depths below a root minus twice the depth of their lowest common ancestor.
+ * <p>
+ * The nodes are numbered in depth-first preorder, so that every subtree takes
+ * up a range of numbers. The common ancestor of two nodes is then the parent
+ * of the shallowest node numbered after the first and up to the second, which
+ * a range minimum query over the depths in preorder finds. The query is
+ * answered from the minima of blocks of 32 depths, kept in a sparse table,
+ * and from a bitmask per node that gives the minimum of any part of its
+ * block. The numbering is found by a single walk of the tree; the tables are
+ * built in parallel.
+ * <p>
+ * An index can be written next to its maze and read back, which skips the
+ * walk. It reads the maze to reconstruct paths, and must be rebuilt if the
+ * walls change.
+ */
+public class TreeIndex {
+    /** Marks the start of a written index. */
+    public static final int MAGIC = 0x4d5a5449;
+
+    /** The version of the format written by {@link #write(DataOutput)}. */
+    public static final int VERSION = 1;
+
+    private static final int BLOCK_SHIFT = 5;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    /* The blocks handed to one task when building the tables. */
+    private static final int GRAIN = 4096;
+
+    private static final int NO_PARENT = -1;
+
+    private final Maze maze;
+    private final int modCount;
+    private final int root;
+
+    /* The preorder number of each node, by maze node index. */
+    private final int[] order;
+
+    /* The depth of each node, by preorder number. */
+    private final int[] depths;
+
+    /* The ordinal of the direction of each node's parent, by maze node index. */
+    private final byte[] parents;
+
+    /*
+     * Bit j of masks[i] is set if the node numbered start + j, where start is
+     * the first number of the block of i, is shallower than every node after
+     * it up to i. The lowest such bit at or after a position is the minimum
+     * from there to i.
+     */
+    private int[] masks;
+
+    /* table[k][b] is the minimum depth of blocks b to b + 2^k - 1. */
+    private int[][] table;
+
+    /**
+     * Builds the index of a perfect maze rooted at its top-left node.
+     *
+     * @param  maze the maze
+     * @throws NullPointerException if maze is null
+     * @throws IllegalArgumentException if the maze is not perfect
+     */
+    public TreeIndex(Maze maze) {
+        this(maze, maze.indexOf(0, 0), 0);
+    }
+
+    /**
+     * Builds the index of a perfect maze, using the common fork/join pool.
+     *
+     * @param  maze the maze
+     * @param  root the index of the node to root the tree at
+     * @throws NullPointerException if maze is null
+     * @throws OutOfBoundsException if root is not a node index
+     * @throws IllegalArgumentException if the maze is not perfect
+     */
+    public TreeIndex(Maze maze, int root) {
+        this(maze, root, 0);
+    }
+
+    /**
+     * Builds the index of a perfect maze.
+     *
+     * @param  maze        the maze
+     * @param  root        the index of the node to root the tree at
+     * @param  parallelism the number of threads, or 0 for the common pool
+     * @throws NullPointerException if maze is null
+     * @throws OutOfBoundsException if root is not a node index
+     * @throws IllegalArgumentException if the maze is not perfect or
+     *         parallelism is negative
+     */
+    public TreeIndex(Maze maze, int root, int parallelism) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("Parallelism must not be negative");
+        }
+        MazeStorage storage = maze.getStorage();
+        if (root < 0 || root >= storage.size()
+                || storage.getX(root) >= maze.getWidth() || storage.getY(root) >= maze.getHeight()) {
+            throw new OutOfBoundsException();
+        }
+        this.maze = maze;
+        modCount = maze.getModificationCount();
+        this.root = root;
+        int size = maze.getIndexCount();
+        int nodes = maze.getWidth() * maze.getHeight();
+        order = new int[size];
+        depths = new int[nodes];
+        parents = new byte[size];
+        number(nodes);
+        buildTables(parallelism);
+    }
+
+    private TreeIndex(Maze maze, int root, int[] order, int[] depths, byte[] parents) {
+        this.maze = maze;
+        modCount = maze.getModificationCount();
+        this.root = root;
+        this.order = order;
+        this.depths = depths;
+        this.parents = parents;
+    }
+
+    /**
+     * Numbers the nodes in preorder with a walk from the root. A node is
+     * numbered when it is taken off the stack and its children are pushed,
+     * so each subtree is numbered before the nodes below it on the stack.
+     */
+    private void number(int nodes) {
+        Arrays.fill(order, -1);
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = root;
+        parents[root] = NO_PARENT;
+        int count = 0;
+        while (top > 0) {
+            int n = stack[--top];
+            int parent = parents[n];
+            int depth = (parent == NO_PARENT) ? 0 : depths[order[maze.neighbor(n, parent)]] + 1;
+            order[n] = count;
+            depths[count++] = depth;
+            for (int open = maze.openNeighbors(n); open != 0; open &= open - 1) {
+                int d = Integer.numberOfTrailingZeros(open);
+                if (d == parent) {
+                    continue;
+                }
+                int m = maze.neighbor(n, d);
+                if (order[m] != -1) {
+                    throw new IllegalArgumentException("The maze has a loop");
+                }
+                order[m] = -2;
+                parents[m] = (byte) ((d + 2) & 3);
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * top);
+                }
+                stack[top++] = m;
+            }
+        }
+        if (count != nodes) {
+            throw new IllegalArgumentException("The maze is not connected");
+        }
+    }
+
+    /** Builds the block masks and the sparse table of block minima. */
+    private void buildTables(int parallelism) {
+        int nodes = depths.length;
+        int blocks = (nodes + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+        int levels = 32 - Integer.numberOfLeadingZeros(blocks);
+        int[] masks = new int[nodes];
+        int[][] table = new int[levels][];
+        table[0] = new int[blocks];
+        ForkJoinPool pool = Parallel.pool(parallelism);
+        try {
+            Parallel.forRange(pool, 0, blocks, GRAIN, (from, to) -> {
+                for (int b = from; b < to; ++b) {
+                    int start = b << BLOCK_SHIFT;
+                    int end = Math.min(start + BLOCK_SIZE, nodes);
+                    int mask = 0;
+                    int min = Integer.MAX_VALUE;
+                    for (int i = start; i < end; ++i) {
+                        int depth = depths[i];
+                        while (mask != 0 && depths[start + 31 - Integer.numberOfLeadingZeros(mask)] >= depth) {
+                            mask &= ~Integer.highestOneBit(mask);
+                        }
+                        mask |= 1 << (i - start);
+                        masks[i] = mask;
+                        min = Math.min(min, depth);
+                    }
+                    table[0][b] = min;
+                }
+            });
+            for (int k = 1; k < levels; ++k) {
+                int[] below = table[k - 1];
+                int half = 1 << (k - 1);
+                int[] level = new int[blocks - (1 << k) + 1];
+                table[k] = level;
+                Parallel.forRange(pool, 0, level.length, GRAIN, (from, to) -> {
+                    for (int b = from; b < to; ++b) {
+                        level[b] = Math.min(below[b], below[b + half]);
+                    }
+                });
+            }
+        } finally {
+            Parallel.release(pool);
+        }
+        this.masks = masks;
+        this.table = table;
+    }
+
+    /** Returns the maze the index was built for. */
+    public Maze getMaze() {
+        return maze;
+    }
+
+    /** Returns whether the walls of the maze have changed since the index was built. */
+    public boolean isStale() {
+        return maze.getModificationCount() != modCount;
+    }
+
+    /** Returns the index of the root node. */
+    public int getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the number of moves from the root to a node.
+     *
+     * @param  index the index of the node
+     * @return the depth of the node
+     * @throws ArrayIndexOutOfBoundsException if index is not a node index
+     */
+    public int getDepth(int index) {
+        return depths[order[index]];
+    }
+
+    /**
+     * Returns the ordinal of the direction from a node towards the root.
+     *
+     * @param  index the index of the node
+     * @return the direction ordinal, or -1 for the root
+     * @throws ArrayIndexOutOfBoundsException if index is not a node index
+     */
+    public int getParentDirection(int index) {
+        return parents[index];
+    }
+
+    /**
+     * Returns the number of moves between two nodes.
+     *
+     * @param  a the index of one node
+     * @param  b the index of the other node
+     * @return the distance between the nodes
+     * @throws ArrayIndexOutOfBoundsException if a or b is not a node index
+     */
+    public int distance(int a, int b) {
+        int pa = order[a];
+        int pb = order[b];
+        return depths[pa] + depths[pb] - 2 * ancestorDepth(pa, pb);
+    }
+
+    /**
+     * Copies the node indices of the path between two nodes, from a to b,
+     * into an array. The path goes up from a to the lowest common ancestor
+     * and then down to b.
+     *
+     * @param  a    the index of the node to start from
+     * @param  b    the index of the node to reach
+     * @param  path the array to fill, with room for distance(a, b) + 1
+     *              indices
+     * @return the number of indices copied
+     * @throws ArrayIndexOutOfBoundsException if a or b is not a node index
+     *         or path is too short
+     */
+    public int getPath(int a, int b, int[] path) {
+        int pa = order[a];
+        int pb = order[b];
+        int top = ancestorDepth(pa, pb);
+        int up = depths[pa] - top;
+        int length = up + depths[pb] - top;
+        if (path.length <= length) {
+            throw new ArrayIndexOutOfBoundsException(length);
+        }
+        path[0] = a;
+        for (int i = 1; i <= up; ++i) {
+            a = maze.neighbor(a, parents[a]);
+            path[i] = a;
+        }
+        path[length] = b;
+        for (int i = length - 1; i > up; --i) {
+            b = maze.neighbor(b, parents[b]);
+            path[i] = b;
+        }
+        return length + 1;
+    }
+
+    /**
+     * Returns the node indices of the path between two nodes, from a to b.
+     *
+     * @param  a the index of the node to start from
+     * @param  b the index of the node to reach
+     * @return the path
+     * @throws ArrayIndexOutOfBoundsException if a or b is not a node index
+     */
+    public int[] getPath(int a, int b) {
+        int[] path = new int[distance(a, b) + 1];
+        getPath(a, b, path);
+        return path;
+    }
+
+    /** Returns the depth of the lowest common ancestor of two nodes given by preorder number. */
+    private int ancestorDepth(int pa, int pb) {
+        if (pa == pb) {
+            return depths[pa];
+        }
+        return minDepth(Math.min(pa, pb) + 1, Math.max(pa, pb)) - 1;
+    }
+
+    /** Returns the smallest depth among the nodes numbered from l to r. */
+    private int minDepth(int l, int r) {
+        int lb = l >>> BLOCK_SHIFT;
+        int rb = r >>> BLOCK_SHIFT;
+        if (lb == rb) {
+            return inBlock(l, r);
+        }
+        int min = Math.min(inBlock(l, (lb << BLOCK_SHIFT) + BLOCK_SIZE - 1), inBlock(rb << BLOCK_SHIFT, r));
+        if (rb - lb > 1) {
+            int k = 31 - Integer.numberOfLeadingZeros(rb - lb - 1);
+            int[] level = table[k];
+            min = Math.min(min, Math.min(level[lb + 1], level[rb - (1 << k)]));
+        }
+        return min;
+    }
+
+    /** Returns the smallest depth from l to r, which lie in the same block. */
+    private int inBlock(int l, int r) {
+        int start = l & ~(BLOCK_SIZE - 1);
+        int mask = masks[r] & (-1 << (l - start));
+        return depths[start + Integer.numberOfTrailingZeros(mask)];
+    }
+
+    /**
+     * Writes the index. The maze itself is not written; it is written on its
+     * own and given back when the index is read.
+     *
+     * @param  out the output to write to
+     * @throws IOException if an I/O error occurs
+     * @throws NullPointerException if out is null
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(maze.getWidth());
+        out.writeInt(maze.getHeight());
+        out.writeByte(maze.getStorage().getOrder().ordinal());
+        out.writeInt(root);
+        writeInts(out, order);
+        writeInts(out, depths);
+        out.write(parents);
+    }
+
+    /**
+     * Reads an index written by {@link #write(DataOutput)} for a maze, using
+     * the common fork/join pool to rebuild its tables.
+     *
+     * @param  in   the input to read from
+     * @param  maze the maze the index was built for
+     * @return the index
+     * @throws IOException if an I/O error occurs, the data is not an index
+     *         or it does not fit the maze
+     * @throws NullPointerException if an argument is null
+     */
+    public static TreeIndex read(DataInput in, Maze maze) throws IOException {
+        return read(in, maze, 0);
+    }
+
+    /**
+     * Reads an index written by {@link #write(DataOutput)} for a maze.
+     *
+     * @param  in          the input to read from
+     * @param  maze        the maze the index was built for
+     * @param  parallelism the number of threads, or 0 for the common pool
+     * @return the index
+     * @throws IOException if an I/O error occurs, the data is not an index
+     *         or it does not fit the maze
+     * @throws NullPointerException if an argument is null
+     * @throws IllegalArgumentException if parallelism is negative
+     */
+    public static TreeIndex read(DataInput in, Maze maze, int parallelism) throws IOException {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("Parallelism must not be negative");
+        }
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a tree index");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported tree index version " + version);
+        }
+        int width = in.readInt();
+        int height = in.readInt();
+        int cellOrder = in.readUnsignedByte();
+        if (width != maze.getWidth() || height != maze.getHeight()
+                || cellOrder != maze.getStorage().getOrder().ordinal()) {
+            throw new IOException("The tree index does not fit the maze");
+        }
+        int root = in.readInt();
+        if (root < 0 || root >= maze.getIndexCount()
+                || maze.getX(root) >= width || maze.getY(root) >= height) {
+            throw new IOException("The root of the tree index is not a node of the maze");
+        }
+        int[] order = readInts(in, maze.getIndexCount());
+        int[] depths = readInts(in, width * height);
+        byte[] parents = new byte[maze.getIndexCount()];
+        in.readFully(parents);
+        check(maze, root, order, depths, parents);
+        TreeIndex index = new TreeIndex(maze, root, order, depths, parents);
+        index.buildTables(parallelism);
+        return index;
+    }
+
+    /**
+     * Checks that the numbers, depths and parents read fit the maze, so that
+     * queries cannot run off the arrays or through walls. Each node must have
+     * a number and a parent one move shallower through an open side, and
+     * no padding index may have a number.
+     */
+    private static void check(Maze maze, int root, int[] order, int[] depths, byte[] parents)
+            throws IOException {
+        int nodes = depths.length;
+        for (int i = 0; i < order.length; ++i) {
+            int parent = parents[i];
+            if (parent < NO_PARENT || parent > 3) {
+                throw new IOException("Corrupt tree index at index " + i);
+            }
+            if (maze.getX(i) >= maze.getWidth() || maze.getY(i) >= maze.getHeight()) {
+                if (order[i] != -1) {
+                    throw new IOException("Corrupt tree index at padding index " + i);
+                }
+                continue;
+            }
+            if (order[i] < 0 || order[i] >= nodes || depths[order[i]] < 0) {
+                throw new IOException("Corrupt tree index at node " + i);
+            }
+            if (i == root) {
+                if (parent != NO_PARENT || depths[order[i]] != 0) {
+                    throw new IOException("Corrupt tree index at the root");
+                }
+            } else if (parent == NO_PARENT || (maze.openNeighbors(i) & (1 << parent)) == 0) {
+                throw new IOException("Corrupt tree index at node " + i);
+            }
+        }
+        for (int i = 0; i < order.length; ++i) {
+            if (order[i] >= 0 && i != root
+                    && depths[order[i]] != depths[order[maze.neighbor(i, parents[i])]] + 1) {
+                throw new IOException("Corrupt tree index at node " + i);
+            }
+        }
+
+        /*
+         * The numbers must be a preorder of the tree: each node after the root
+         * is a child of the node before it or of one of that node's
+         * ancestors, which are the nodes on the stack.
+         */
+        int[] cells = new int[nodes];
+        Arrays.fill(cells, -1);
+        for (int i = 0; i < order.length; ++i) {
+            if (order[i] >= 0) {
+                if (cells[order[i]] != -1) {
+                    throw new IOException("Corrupt tree index at node " + i);
+                }
+                cells[order[i]] = i;
+            }
+        }
+        if (cells[0] != root) {
+            throw new IOException("Corrupt tree index at the root");
+        }
+        int[] stack = new int[depths.length];
+        int top = 0;
+        stack[top++] = root;
+        for (int k = 1; k < nodes; ++k) {
+            int n = cells[k];
+            int parent = maze.neighbor(n, parents[n]);
+            while (top > 0 && stack[top - 1] != parent) {
+                --top;
+            }
+            if (top == 0) {
+                throw new IOException("Corrupt tree index at node " + n);
+            }
+            stack[top++] = n;
+        }
+    }
+
+    private static void writeInts(DataOutput out, int[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE * 1024);
+        for (int i = 0; i < values.length;) {
+            int count = Math.min(values.length - i, buffer.capacity() / 4);
+            buffer.clear();
+            buffer.asIntBuffer().put(values, i, count);
+            out.write(buffer.array(), 0, 4 * count);
+            i += count;
+        }
+    }
+
+    private static int[] readInts(DataInput in, int length) throws IOException {
+        int[] values = new int[length];
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE * 1024);
+        for (int i = 0; i < length;) {
+            int count = Math.min(length - i, buffer.capacity() / 4);
+            in.readFully(buffer.array(), 0, 4 * count);
+            buffer.clear();
+            buffer.asIntBuffer().get(values, i, count);
+            i += count;
+        }
+        return values;
+    }
+}
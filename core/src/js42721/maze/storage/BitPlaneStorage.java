@@ -0,0 +1,238 @@
+package js42721.maze.storage;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Stores walls as two bit planes, one for east walls and one for south walls,
+ * with a bit per node packed 64 to a word. The west and north walls of a node
+ * are the east and south walls of its neighbors, so the planes take two bits
+ * per node, plus a bit per row and per column for the west and north border.
+ * Each row starts on a word boundary, which lets whole-row work such as
+ * {@link #fill(int)}, {@link #addBorder(int, int, int, int)} and neighbor
+ * scans handle 64 nodes per operation.
+ * <p>
+ * Since neighboring nodes share wall bits, this storage can only hold walls
+ * that are consistent between neighbors, which is all {@link
+ * js42721.maze.Maze} ever writes. Flags are kept in a separate array that is
+ * only allocated once a generator sets one and can be dropped with {@link
+ * #releaseFlags()}.
+ */
+public class BitPlaneStorage extends MazeStorage implements Serializable {
+    private static final long serialVersionUID = -4902268713409615245L;
+
+    private static final int NORTH = 1 << 0;
+    private static final int EAST  = 1 << 1;
+    private static final int SOUTH = 1 << 2;
+    private static final int WEST  = 1 << 3;
+
+    private final int wordsPerRow;
+    private final long lastWordMask;
+    private final long[] east;
+    private final long[] south;
+    private final long[] westBorder;
+    private final long[] northBorder;
+    private byte[] flags;
+
+    /**
+     * Creates storage for a maze of the given dimensions.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public BitPlaneStorage(int width, int height) {
+        super(width, height);
+        wordsPerRow = (width + 63) >>> 6;
+        lastWordMask = -1L >>> (64 * wordsPerRow - width);
+        east = new long[wordsPerRow * height];
+        south = new long[wordsPerRow * height];
+        westBorder = new long[(height + 63) >>> 6];
+        northBorder = new long[wordsPerRow];
+    }
+
+    /** Returns the number of words that hold a row of a plane. */
+    public int getWordsPerRow() {
+        return wordsPerRow;
+    }
+
+    /**
+     * Returns the mask of the bits in a word that belong to nodes. Only the
+     * last word of a row has unused bits.
+     */
+    public long getValidBits(int word) {
+        return (word == wordsPerRow - 1) ? lastWordMask : -1L;
+    }
+
+    /**
+     * Returns a word of the east wall plane. Bit b is set if node
+     * (64 * word + b, y) has a wall on its east side.
+     */
+    public long getEastWord(int y, int word) {
+        return east[y * wordsPerRow + word];
+    }
+
+    /**
+     * Returns a word of the south wall plane. Bit b is set if node
+     * (64 * word + b, y) has a wall on its south side.
+     */
+    public long getSouthWord(int y, int word) {
+        return south[y * wordsPerRow + word];
+    }
+
+    /** Returns a word of west walls, derived from the east plane. */
+    public long getWestWord(int y, int word) {
+        int i = y * wordsPerRow + word;
+        long carry;
+        if (word == 0) {
+            carry = (westBorder[y >>> 6] >>> y) & 1L;
+        } else {
+            carry = east[i - 1] >>> 63;
+        }
+        return ((east[i] << 1) | carry) & getValidBits(word);
+    }
+
+    /** Returns a word of north walls, derived from the south plane. */
+    public long getNorthWord(int y, int word) {
+        return (y == 0) ? northBorder[word] : south[(y - 1) * wordsPerRow + word];
+    }
+
+    /**
+     * Returns a word with a bit set for each node whose south side is open.
+     * Nodes on the bottom row are open to the south only if the maze has no
+     * border there.
+     */
+    public long getOpenSouthWord(int y, int word) {
+        return ~south[y * wordsPerRow + word] & getValidBits(word);
+    }
+
+    /** Returns a word with a bit set for each node whose east side is open. */
+    public long getOpenEastWord(int y, int word) {
+        return ~east[y * wordsPerRow + word] & getValidBits(word);
+    }
+
+    @Override
+    public int getWalls(int index) {
+        int width = getWidth();
+        int y = index / width;
+        int x = index - y * width;
+        int i = y * wordsPerRow + (x >>> 6);
+        int walls = 0;
+        if ((east[i] & (1L << x)) != 0) {
+            walls |= EAST;
+        }
+        if ((south[i] & (1L << x)) != 0) {
+            walls |= SOUTH;
+        }
+        if (x == 0) {
+            if ((westBorder[y >>> 6] & (1L << y)) != 0) {
+                walls |= WEST;
+            }
+        } else if ((east[y * wordsPerRow + ((x - 1) >>> 6)] & (1L << (x - 1))) != 0) {
+            walls |= WEST;
+        }
+        if (y == 0) {
+            if ((northBorder[x >>> 6] & (1L << x)) != 0) {
+                walls |= NORTH;
+            }
+        } else if ((south[i - wordsPerRow] & (1L << x)) != 0) {
+            walls |= NORTH;
+        }
+        return walls;
+    }
+
+    @Override
+    public void setWalls(int index, int walls) {
+        int width = getWidth();
+        int y = index / width;
+        int x = index - y * width;
+        int i = y * wordsPerRow + (x >>> 6);
+        set(east, i, x, (walls & EAST) != 0);
+        set(south, i, x, (walls & SOUTH) != 0);
+        if (x == 0) {
+            set(westBorder, y >>> 6, y, (walls & WEST) != 0);
+        } else {
+            set(east, y * wordsPerRow + ((x - 1) >>> 6), x - 1, (walls & WEST) != 0);
+        }
+        if (y == 0) {
+            set(northBorder, x >>> 6, x, (walls & NORTH) != 0);
+        } else {
+            set(south, i - wordsPerRow, x, (walls & NORTH) != 0);
+        }
+    }
+
+    @Override
+    public int getFlags(int index) {
+        return (flags == null) ? 0 : flags[index];
+    }
+
+    @Override
+    public void setFlags(int index, int flags) {
+        if (this.flags == null) {
+            if (flags == 0) {
+                return;
+            }
+            this.flags = new byte[size()];
+        }
+        this.flags[index] = (byte) flags;
+    }
+
+    @Override
+    public void fill(int walls) {
+        fillPlane(east, (walls & EAST) != 0);
+        fillPlane(south, (walls & SOUTH) != 0);
+        Arrays.fill(westBorder, (walls & WEST) != 0 ? -1L : 0L);
+        Arrays.fill(northBorder, (walls & NORTH) != 0 ? -1L : 0L);
+        if (flags != null) {
+            Arrays.fill(flags, (byte) 0);
+        }
+    }
+
+    @Override
+    public void addBorder(int north, int east, int south, int west) {
+        int height = getHeight();
+        if (north != 0) {
+            Arrays.fill(northBorder, -1L);
+        }
+        if (west != 0) {
+            Arrays.fill(westBorder, -1L);
+        }
+        if (east != 0) {
+            long bit = 1L << (getWidth() - 1);
+            for (int i = wordsPerRow - 1; i < this.east.length; i += wordsPerRow) {
+                this.east[i] |= bit;
+            }
+        }
+        if (south != 0) {
+            int base = (height - 1) * wordsPerRow;
+            for (int w = 0; w < wordsPerRow; ++w) {
+                this.south[base + w] |= getValidBits(w);
+            }
+        }
+    }
+
+    @Override
+    public void releaseFlags() {
+        flags = null;
+    }
+
+    /** Sets or clears every bit of a plane that belongs to a node. */
+    private void fillPlane(long[] plane, boolean value) {
+        if (!value) {
+            Arrays.fill(plane, 0L);
+            return;
+        }
+        Arrays.fill(plane, -1L);
+        for (int i = wordsPerRow - 1; i < plane.length; i += wordsPerRow) {
+            plane[i] = lastWordMask;
+        }
+    }
+
+    private static void set(long[] plane, int word, int bit, boolean value) {
+        if (value) {
+            plane[word] |= 1L << bit;
+        } else {
+            plane[word] &= ~(1L << bit);
+        }
+    }
+}
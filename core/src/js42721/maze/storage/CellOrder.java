@@ -0,0 +1,86 @@
+package js42721.maze.storage;
+
+/**
+ * The order in which a storage lays out the nodes of a maze. Apart from
+ * {@link #ROW_MAJOR}, the maze is cut into square blocks of {@value
+ * #BLOCK_SIZE} by {@value #BLOCK_SIZE} nodes which are laid out row by row,
+ * and the nodes inside a block follow a space-filling curve. Nodes that are
+ * close in the maze then tend to be close in memory, so a walk that moves
+ * vertically does not jump a whole row each step. The maze is padded to a
+ * whole number of blocks.
+ */
+public enum CellOrder {
+    /** Rows one after another, {@code y * width + x}. */
+    ROW_MAJOR,
+
+    /** Z-order (Morton) curve inside each block. */
+    MORTON,
+
+    /** Hilbert curve inside each block. */
+    HILBERT;
+
+    /** The side of a block in nodes. */
+    public static final int BLOCK_SIZE = 32;
+
+    static final int BLOCK_SHIFT = 5;
+    static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    /** Maps {@code (y << BLOCK_SHIFT) | x} to the position inside a block. */
+    final int[] forward;
+
+    /** Maps a position inside a block to {@code (y << BLOCK_SHIFT) | x}. */
+    final int[] inverse;
+
+    CellOrder() {
+        int n = BLOCK_SIZE * BLOCK_SIZE;
+        forward = new int[n];
+        inverse = new int[n];
+        for (int y = 0; y < BLOCK_SIZE; ++y) {
+            for (int x = 0; x < BLOCK_SIZE; ++x) {
+                int d;
+                switch (ordinal()) {
+                case 1:
+                    d = morton(x, y);
+                    break;
+                case 2:
+                    d = hilbert(x, y);
+                    break;
+                default:
+                    d = (y << BLOCK_SHIFT) | x;
+                }
+                forward[(y << BLOCK_SHIFT) | x] = d;
+                inverse[d] = (y << BLOCK_SHIFT) | x;
+            }
+        }
+    }
+
+    /** Interleaves the bits of x and y, x taking the low bit. */
+    private static int morton(int x, int y) {
+        int d = 0;
+        for (int b = 0; b < BLOCK_SHIFT; ++b) {
+            d |= ((x >>> b) & 1) << (2 * b);
+            d |= ((y >>> b) & 1) << (2 * b + 1);
+        }
+        return d;
+    }
+
+    /** Returns the distance of (x, y) along the Hilbert curve of a block. */
+    private static int hilbert(int x, int y) {
+        int d = 0;
+        for (int s = BLOCK_SIZE / 2; s > 0; s /= 2) {
+            int rx = (x & s) != 0 ? 1 : 0;
+            int ry = (y & s) != 0 ? 1 : 0;
+            d += s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = BLOCK_SIZE - 1 - x;
+                    y = BLOCK_SIZE - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+}
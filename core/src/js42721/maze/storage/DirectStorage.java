@@ -0,0 +1,102 @@
+package js42721.maze.storage;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * Stores each node in one byte of a direct buffer. The nodes live outside the
+ * Java heap, so a very large maze does not weigh on the garbage collector.
+ */
+public class DirectStorage extends MazeStorage implements Serializable {
+    private static final long serialVersionUID = -1637442915097125016L;
+
+    private transient ByteBuffer b;
+
+    /**
+     * Creates storage for a maze of the given dimensions.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public DirectStorage(int width, int height) {
+        this(width, height, CellOrder.ROW_MAJOR);
+    }
+
+    /**
+     * Creates storage for a maze of the given dimensions with the nodes laid
+     * out in the given order.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  order  the layout of the nodes
+     * @throws IllegalArgumentException if width or height is not positive
+     * @throws NullPointerException if order is null
+     */
+    public DirectStorage(int width, int height, CellOrder order) {
+        super(width, height, order);
+        b = ByteBuffer.allocateDirect(size());
+    }
+
+    /** Returns true since every node has its own byte. */
+    @Override
+    public boolean supportsConcurrentWrites() {
+        return true;
+    }
+
+    @Override
+    public int getWalls(int index) {
+        return b.get(index) & WALL_MASK;
+    }
+
+    @Override
+    public void setWalls(int index, int walls) {
+        b.put(index, (byte) ((b.get(index) & ~WALL_MASK) | walls));
+    }
+
+    @Override
+    public int getFlags(int index) {
+        return (b.get(index) >> 4) & FLAG_MASK;
+    }
+
+    @Override
+    public void setFlags(int index, int flags) {
+        b.put(index, (byte) ((b.get(index) & WALL_MASK) | (flags << 4)));
+    }
+
+    @Override
+    public void fill(int walls) {
+        byte value = (byte) walls;
+        int n = size();
+        for (int i = 0; i < n; ++i) {
+            b.put(i, value);
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        byte[] buffer = new byte[8192];
+        ByteBuffer src = b.duplicate();
+        src.clear();
+        while (src.hasRemaining()) {
+            int n = Math.min(buffer.length, src.remaining());
+            src.get(buffer, 0, n);
+            out.write(buffer, 0, n);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        b = ByteBuffer.allocateDirect(size());
+        byte[] buffer = new byte[8192];
+        while (b.hasRemaining()) {
+            int n = Math.min(buffer.length, b.remaining());
+            in.readFully(buffer, 0, n);
+            b.put(buffer, 0, n);
+        }
+        b.clear();
+    }
+}
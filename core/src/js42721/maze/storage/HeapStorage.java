@@ -0,0 +1,82 @@
+package js42721.maze.storage;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/** Stores each node in one byte of a heap array. This is the default. */
+public class HeapStorage extends MazeStorage implements Serializable {
+    private static final long serialVersionUID = 2260948317745962813L;
+
+    private final byte[] b;
+
+    /**
+     * Creates storage for a maze of the given dimensions.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public HeapStorage(int width, int height) {
+        this(width, height, CellOrder.ROW_MAJOR);
+    }
+
+    /**
+     * Creates storage for a maze of the given dimensions with the nodes laid
+     * out in the given order.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  order  the layout of the nodes
+     * @throws IllegalArgumentException if width or height is not positive
+     * @throws NullPointerException if order is null
+     */
+    public HeapStorage(int width, int height, CellOrder order) {
+        super(width, height, order);
+        b = new byte[size()];
+    }
+
+    /**
+     * Creates a heap copy of another storage.
+     *
+     * @param  other the storage to copy
+     * @throws NullPointerException if other is null
+     */
+    public HeapStorage(MazeStorage other) {
+        this(other.getWidth(), other.getHeight(), other.getOrder());
+        for (int i = 0; i < b.length; ++i) {
+            b[i] = (byte) (other.getWalls(i) | (other.getFlags(i) << 4));
+        }
+    }
+
+    /** Returns true since every node has its own byte. */
+    @Override
+    public boolean supportsConcurrentWrites() {
+        return true;
+    }
+
+    @Override
+    public int getWalls(int index) {
+        return b[index] & WALL_MASK;
+    }
+
+    @Override
+    public void setWalls(int index, int walls) {
+        b[index] = (byte) ((b[index] & ~WALL_MASK) | walls);
+    }
+
+    @Override
+    public int getFlags(int index) {
+        /* Mask is required b/c of sign extension from widening conversion. */
+        return (b[index] >> 4) & FLAG_MASK;
+    }
+
+    @Override
+    public void setFlags(int index, int flags) {
+        b[index] = (byte) ((b[index] & WALL_MASK) | (flags << 4));
+    }
+
+    @Override
+    public void fill(int walls) {
+        Arrays.fill(b, (byte) walls);
+    }
+}
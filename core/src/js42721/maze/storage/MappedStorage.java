@@ -0,0 +1,231 @@
+package js42721.maze.storage;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Stores each node in one byte of a memory-mapped file, so a maze can be
+ * larger than the heap and can be reopened by another process without any
+ * decoding. The file is mapped in pages of {@value #PAGE_SIZE} bytes since a
+ * single mapping cannot exceed 2 GB.
+ * <p>
+ * The file holds a 20-byte header followed by the nodes in index order. The
+ * header is the magic number {@code 0x4d415a4d}, a format version, the width,
+ * the height and the ordinal of the {@link CellOrder}, all as big-endian ints.
+ * Version 1 files have no order field and are always row-major. Serializing
+ * this storage writes a {@link HeapStorage} copy.
+ */
+public class MappedStorage extends MazeStorage implements Serializable {
+    private static final long serialVersionUID = -7326062271836430978L;
+
+    /** Number of bytes mapped at a time. */
+    public static final int PAGE_SIZE = 1 << 30;
+
+    private static final int PAGE_SHIFT = 30;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int MAGIC = 0x4d415a4d;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 20;
+    private static final int V1_HEADER_SIZE = 16;
+
+    private final transient MappedByteBuffer[] pages;
+    private final transient boolean readOnly;
+    private final transient int headerSize;
+
+    private MappedStorage(int width, int height, CellOrder order, int headerSize,
+                          FileChannel channel, boolean readOnly, boolean existing)
+            throws IOException {
+        super(width, height, order);
+        this.readOnly = readOnly;
+        this.headerSize = headerSize;
+        long length = headerSize + (long) size();
+        if (existing && channel.size() < length) {
+            throw new IOException("Truncated maze file");
+        }
+        FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY
+                                            : FileChannel.MapMode.READ_WRITE;
+        pages = new MappedByteBuffer[(int) ((length + PAGE_MASK) >>> PAGE_SHIFT)];
+        for (int p = 0; p < pages.length; ++p) {
+            long position = (long) p << PAGE_SHIFT;
+            pages[p] = channel.map(mode, position, Math.min(PAGE_SIZE, length - position));
+        }
+    }
+
+    /**
+     * Creates a file holding an empty maze of the given dimensions and maps
+     * it for reading and writing. An existing file is overwritten.
+     *
+     * @param  file   the file to create
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @return the storage backed by the file
+     * @throws IllegalArgumentException if width or height is not positive
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public static MappedStorage create(Path file, int width, int height) throws IOException {
+        return create(file, width, height, CellOrder.ROW_MAJOR);
+    }
+
+    /**
+     * Creates a file holding an empty maze of the given dimensions with the
+     * nodes laid out in the given order, and maps it for reading and writing.
+     * An existing file is overwritten.
+     *
+     * @param  file   the file to create
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  order  the layout of the nodes
+     * @return the storage backed by the file
+     * @throws IllegalArgumentException if width or height is not positive
+     * @throws IOException if the file cannot be created or mapped
+     * @throws NullPointerException if order is null
+     */
+    public static MappedStorage create(Path file, int width, int height, CellOrder order)
+            throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height)
+                  .putInt(order.ordinal()).flip();
+            MappedStorage storage = new MappedStorage(width, height, order, HEADER_SIZE,
+                                                      channel, false, false);
+            storage.pages[0].put(header);
+            return storage;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Maps a file written by {@link #create(Path, int, int, CellOrder)}.
+     *
+     * @param  file     the file to open
+     * @param  readOnly whether the maze may be modified
+     * @return the storage backed by the file
+     * @throws IOException if the file cannot be mapped or is not a maze file
+     */
+    public static MappedStorage open(Path file, boolean readOnly) throws IOException {
+        FileChannel channel = readOnly
+                ? FileChannel.open(file, StandardOpenOption.READ)
+                : FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(HEADER_SIZE, channel.size()));
+            if (header.capacity() < V1_HEADER_SIZE) {
+                throw new IOException("Truncated maze file header");
+            }
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("Truncated maze file header");
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a maze file");
+            }
+            int version = header.getInt();
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unsupported maze file version " + version);
+            }
+            int width = header.getInt();
+            int height = header.getInt();
+            CellOrder order = CellOrder.ROW_MAJOR;
+            int headerSize = V1_HEADER_SIZE;
+            if (version == VERSION) {
+                if (header.remaining() < 4) {
+                    throw new IOException("Truncated maze file header");
+                }
+                int ordinal = header.getInt();
+                if (ordinal < 0 || ordinal >= CellOrder.values().length) {
+                    throw new IOException("Unknown cell order " + ordinal);
+                }
+                order = CellOrder.values()[ordinal];
+                headerSize = HEADER_SIZE;
+            }
+            try {
+                return new MappedStorage(width, height, order, headerSize, channel, readOnly,
+                                         true);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid maze dimensions " + width + "x" + height, e);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /** Returns true if the storage was mapped read-only. */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /** Writes changes made to the mapped pages out to the file. */
+    public void force() {
+        if (!readOnly) {
+            for (MappedByteBuffer page : pages) {
+                page.force();
+            }
+        }
+    }
+
+    /** Returns true since every node has its own byte. */
+    @Override
+    public boolean supportsConcurrentWrites() {
+        return true;
+    }
+
+    @Override
+    public int getWalls(int index) {
+        return get(index) & WALL_MASK;
+    }
+
+    @Override
+    public void setWalls(int index, int walls) {
+        long offset = headerSize + (long) index;
+        ByteBuffer page = pages[(int) (offset >>> PAGE_SHIFT)];
+        int i = (int) offset & PAGE_MASK;
+        page.put(i, (byte) ((page.get(i) & ~WALL_MASK) | walls));
+    }
+
+    @Override
+    public int getFlags(int index) {
+        return (get(index) >> 4) & FLAG_MASK;
+    }
+
+    @Override
+    public void setFlags(int index, int flags) {
+        long offset = headerSize + (long) index;
+        ByteBuffer page = pages[(int) (offset >>> PAGE_SHIFT)];
+        int i = (int) offset & PAGE_MASK;
+        page.put(i, (byte) ((page.get(i) & WALL_MASK) | (flags << 4)));
+    }
+
+    @Override
+    public void fill(int walls) {
+        byte[] chunk = new byte[8192];
+        Arrays.fill(chunk, (byte) walls);
+        for (int p = 0; p < pages.length; ++p) {
+            ByteBuffer page = pages[p].duplicate();
+            page.position((p == 0) ? headerSize : 0);
+            while (page.hasRemaining()) {
+                page.put(chunk, 0, Math.min(chunk.length, page.remaining()));
+            }
+        }
+    }
+
+    private int get(int index) {
+        long offset = headerSize + (long) index;
+        return pages[(int) (offset >>> PAGE_SHIFT)].get((int) offset & PAGE_MASK);
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return new HeapStorage(this);
+    }
+}
@@ -0,0 +1,249 @@
+package js42721.maze.storage;
+
+import java.io.Serializable;
+
+import js42721.maze.Direction;
+
+/**
+ * Backing store for the nodes of a maze. Each node holds four wall bits and
+ * four flag bits, addressed by a flat node index. How coordinates map to
+ * indices is set by the storage's {@link CellOrder}. A storage only records
+ * what it is told: keeping the walls of adjacent nodes consistent is the job
+ * of {@link js42721.maze.Maze}.
+ */
+public abstract class MazeStorage implements Serializable {
+    private static final long serialVersionUID = -3185719480571944305L;
+
+    /** Bit mask covering the four wall bits of a node. */
+    public static final int WALL_MASK = 0xf;
+
+    /** Bit mask covering the four flag bits of a node. */
+    public static final int FLAG_MASK = 0xf;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final int width;
+    private final int height;
+    private final CellOrder order;
+    private final int blocksPerRow;
+    private final int size;
+
+    /**
+     * Sets the dimensions of the storage and lays the nodes out row by row.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @throws IllegalArgumentException if width or height is not positive or
+     *         if the maze has more than {@code Integer.MAX_VALUE} nodes
+     */
+    protected MazeStorage(int width, int height) {
+        this(width, height, CellOrder.ROW_MAJOR);
+    }
+
+    /**
+     * Sets the dimensions of the storage and the order of its nodes.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  order  the layout of the nodes
+     * @throws IllegalArgumentException if width or height is not positive or
+     *         if the padded maze has more than {@code Integer.MAX_VALUE} nodes
+     * @throws NullPointerException if order is null
+     */
+    protected MazeStorage(int width, int height, CellOrder order) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Width and height must be positive");
+        }
+        if (order == null) {
+            throw new NullPointerException();
+        }
+        long capacity;
+        if (order == CellOrder.ROW_MAJOR) {
+            capacity = (long) width * height;
+            blocksPerRow = 0;
+        } else {
+            blocksPerRow = (width + CellOrder.BLOCK_MASK) >>> CellOrder.BLOCK_SHIFT;
+            long blockRows = (height + CellOrder.BLOCK_MASK) >>> CellOrder.BLOCK_SHIFT;
+            capacity = blocksPerRow * blockRows * CellOrder.BLOCK_SIZE * CellOrder.BLOCK_SIZE;
+        }
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Maze is too large");
+        }
+        this.width = width;
+        this.height = height;
+        this.order = order;
+        size = (int) capacity;
+    }
+
+    /** Returns the width of the maze. */
+    public int getWidth() {
+        return width;
+    }
+
+    /** Returns the height of the maze. */
+    public int getHeight() {
+        return height;
+    }
+
+    /** Returns the layout of the nodes. */
+    public CellOrder getOrder() {
+        return order;
+    }
+
+    /**
+     * Returns the number of indices, which exceeds the number of nodes when
+     * the layout pads the maze.
+     */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the index of the node at (x, y). No bounds checking is done. */
+    public int index(int x, int y) {
+        if (blocksPerRow == 0) {
+            return y * width + x;
+        }
+        int block = (y >>> CellOrder.BLOCK_SHIFT) * blocksPerRow + (x >>> CellOrder.BLOCK_SHIFT);
+        int inner = ((y & CellOrder.BLOCK_MASK) << CellOrder.BLOCK_SHIFT) | (x & CellOrder.BLOCK_MASK);
+        return (block << (2 * CellOrder.BLOCK_SHIFT)) | order.forward[inner];
+    }
+
+    /**
+     * Returns the x-coordinate of the node at an index. Padding indices map
+     * to coordinates outside the maze.
+     */
+    public int getX(int index) {
+        if (blocksPerRow == 0) {
+            return index % width;
+        }
+        int block = index >>> (2 * CellOrder.BLOCK_SHIFT);
+        int inner = order.inverse[index & (CellOrder.BLOCK_SIZE * CellOrder.BLOCK_SIZE - 1)];
+        return ((block % blocksPerRow) << CellOrder.BLOCK_SHIFT) | (inner & CellOrder.BLOCK_MASK);
+    }
+
+    /**
+     * Returns the y-coordinate of the node at an index. Padding indices map
+     * to coordinates outside the maze.
+     */
+    public int getY(int index) {
+        if (blocksPerRow == 0) {
+            return index / width;
+        }
+        int block = index >>> (2 * CellOrder.BLOCK_SHIFT);
+        int inner = order.inverse[index & (CellOrder.BLOCK_SIZE * CellOrder.BLOCK_SIZE - 1)];
+        return ((block / blocksPerRow) << CellOrder.BLOCK_SHIFT) | (inner >>> CellOrder.BLOCK_SHIFT);
+    }
+
+    /**
+     * Returns the index of the node next to another one. The neighbor must
+     * exist; no bounds checking is done.
+     *
+     * @param  index the index of the node
+     * @param  dir   the ordinal of the direction of the neighbor
+     * @return the index of the neighbor
+     */
+    public int neighbor(int index, int dir) {
+        if (blocksPerRow == 0) {
+            switch (dir) {
+            case 0:
+                return index - width;
+            case 1:
+                return index + 1;
+            case 2:
+                return index + width;
+            default:
+                return index - 1;
+            }
+        }
+        Direction d = DIRECTIONS[dir];
+        return index(getX(index) + d.dx, getY(index) + d.dy);
+    }
+
+    /**
+     * Returns the wall bits of the sides of a node that face out of the maze,
+     * whether or not a wall is present there.
+     */
+    public int getOuterSides(int index) {
+        int x, sides = 0;
+        if (blocksPerRow == 0) {
+            if (index < width) {
+                sides |= Direction.NORTH.mask;
+            }
+            if (index >= size - width) {
+                sides |= Direction.SOUTH.mask;
+            }
+            x = index % width;
+        } else {
+            int y = getY(index);
+            if (y == 0) {
+                sides |= Direction.NORTH.mask;
+            }
+            if (y == height - 1) {
+                sides |= Direction.SOUTH.mask;
+            }
+            x = getX(index);
+        }
+        if (x == 0) {
+            sides |= Direction.WEST.mask;
+        }
+        if (x == width - 1) {
+            sides |= Direction.EAST.mask;
+        }
+        return sides;
+    }
+
+    /** Returns the wall bits of a node. */
+    public abstract int getWalls(int index);
+
+    /** Replaces the wall bits of a node, leaving its flag bits intact. */
+    public abstract void setWalls(int index, int walls);
+
+    /** Returns the flag bits of a node. */
+    public abstract int getFlags(int index);
+
+    /** Replaces the flag bits of a node, leaving its wall bits intact. */
+    public abstract void setFlags(int index, int flags);
+
+    /** Sets the wall bits of every node and clears every flag. */
+    public void fill(int walls) {
+        int n = size();
+        for (int i = 0; i < n; ++i) {
+            setWalls(i, walls);
+            setFlags(i, 0);
+        }
+    }
+
+    /**
+     * Adds the given wall bits to the nodes on the border. Each side only
+     * receives the bit that faces outward.
+     */
+    public void addBorder(int north, int east, int south, int west) {
+        for (int y = 0; y < height; ++y) {
+            int i = index(0, y);
+            setWalls(i, getWalls(i) | west);
+            i = index(width - 1, y);
+            setWalls(i, getWalls(i) | east);
+        }
+        for (int x = 0; x < width; ++x) {
+            int i = index(x, 0);
+            setWalls(i, getWalls(i) | north);
+            i = index(x, height - 1);
+            setWalls(i, getWalls(i) | south);
+        }
+    }
+
+    /**
+     * Returns true if different nodes may be written by different threads at
+     * the same time. This holds when no two nodes share a memory location.
+     */
+    public boolean supportsConcurrentWrites() {
+        return false;
+    }
+
+    /**
+     * Frees memory held for flag bits if the storage keeps them separately.
+     * Flags read as zero afterwards until they are set again.
+     */
+    public void releaseFlags() {
+    }
+}
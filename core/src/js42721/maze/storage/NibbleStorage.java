@@ -0,0 +1,85 @@
+package js42721.maze.storage;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Packs the walls of two nodes into each byte. Flags are kept in a separate
+ * array that is only allocated once a generator sets one, and which can be
+ * dropped with {@link #releaseFlags()} once the maze is finished. A finished
+ * maze then takes half the memory of {@link HeapStorage}.
+ */
+public class NibbleStorage extends MazeStorage implements Serializable {
+    private static final long serialVersionUID = 4772316590251934402L;
+
+    private final byte[] walls;
+    private byte[] flags;
+
+    /**
+     * Creates storage for a maze of the given dimensions.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public NibbleStorage(int width, int height) {
+        this(width, height, CellOrder.ROW_MAJOR);
+    }
+
+    /**
+     * Creates storage for a maze of the given dimensions with the nodes laid
+     * out in the given order.
+     *
+     * @param  width  the width of the maze
+     * @param  height the height of the maze
+     * @param  order  the layout of the nodes
+     * @throws IllegalArgumentException if width or height is not positive
+     * @throws NullPointerException if order is null
+     */
+    public NibbleStorage(int width, int height, CellOrder order) {
+        super(width, height, order);
+        walls = new byte[(int) (((long) size() + 1) / 2)];
+    }
+
+    @Override
+    public int getWalls(int index) {
+        int shift = (index & 1) << 2;
+        return (walls[index >>> 1] >> shift) & WALL_MASK;
+    }
+
+    @Override
+    public void setWalls(int index, int walls) {
+        int i = index >>> 1;
+        int shift = (index & 1) << 2;
+        this.walls[i] = (byte) ((this.walls[i] & ~(WALL_MASK << shift)) | (walls << shift));
+    }
+
+    @Override
+    public int getFlags(int index) {
+        return (flags == null) ? 0 : flags[index];
+    }
+
+    @Override
+    public void setFlags(int index, int flags) {
+        if (this.flags == null) {
+            if (flags == 0) {
+                return;
+            }
+            this.flags = new byte[size()];
+        }
+        this.flags[index] = (byte) flags;
+    }
+
+    @Override
+    public void fill(int walls) {
+        Arrays.fill(this.walls, (byte) (walls | (walls << 4)));
+        if (flags != null) {
+            Arrays.fill(flags, (byte) 0);
+        }
+    }
+
+    @Override
+    public void releaseFlags() {
+        flags = null;
+    }
+}
@@ -0,0 +1,110 @@
+package js42721.maze.storage;
+
+import java.io.Serializable;
+
+/**
+ * A read-only window onto a rectangular region of another storage. Nothing
+ * is copied: every read goes to the underlying storage, so the window always
+ * shows its current state. The window's nodes are indexed row by row.
+ */
+public class ViewStorage extends MazeStorage implements Serializable {
+    private static final long serialVersionUID = 3093541772938561042L;
+
+    private final MazeStorage parent;
+    private final int offsetX;
+    private final int offsetY;
+
+    /**
+     * Creates a window onto a region of a storage.
+     *
+     * @param  parent the storage to look into
+     * @param  x      the x-coordinate of the region's top-left node
+     * @param  y      the y-coordinate of the region's top-left node
+     * @param  width  the width of the region
+     * @param  height the height of the region
+     * @throws IllegalArgumentException if the region is empty or does not fit
+     *         in the parent storage
+     * @throws NullPointerException if parent is null
+     */
+    public ViewStorage(MazeStorage parent, int x, int y, int width, int height) {
+        super(width, height);
+        if (x < 0 || y < 0 || x > parent.getWidth() - width || y > parent.getHeight() - height) {
+            throw new IllegalArgumentException("Region does not fit in the parent storage");
+        }
+        this.parent = parent;
+        offsetX = x;
+        offsetY = y;
+    }
+
+    /** Returns the storage this window looks into. */
+    public MazeStorage getParent() {
+        return parent;
+    }
+
+    /** Returns the x-coordinate of the window's top-left node in the parent. */
+    public int getOffsetX() {
+        return offsetX;
+    }
+
+    /** Returns the y-coordinate of the window's top-left node in the parent. */
+    public int getOffsetY() {
+        return offsetY;
+    }
+
+    /** Returns the parent index of a node of the window. */
+    public int toParentIndex(int index) {
+        int width = getWidth();
+        int y = index / width;
+        return parent.index(offsetX + index - y * width, offsetY + y);
+    }
+
+    @Override
+    public int getWalls(int index) {
+        return parent.getWalls(toParentIndex(index));
+    }
+
+    /**
+     * Not supported.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void setWalls(int index, int walls) {
+        throw new UnsupportedOperationException("Views are read-only");
+    }
+
+    @Override
+    public int getFlags(int index) {
+        return parent.getFlags(toParentIndex(index));
+    }
+
+    /**
+     * Not supported.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void setFlags(int index, int flags) {
+        throw new UnsupportedOperationException("Views are read-only");
+    }
+
+    /**
+     * Not supported.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void fill(int walls) {
+        throw new UnsupportedOperationException("Views are read-only");
+    }
+
+    /**
+     * Not supported.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void addBorder(int north, int east, int south, int west) {
+        throw new UnsupportedOperationException("Views are read-only");
+    }
+}
@@ -37,6 +37,9 @@ public class MazeSolver extends Game implements InputProcessor {
     /** Calculated screen height */
     public static final float SCREEN_HEIGHT = WORLD_HEIGHT * PPM;
 
+    /** Time spent generating the maze in each frame, in milliseconds. */
+    private static final long MAZE_MILLIS_PER_FRAME = 8;
+
     /** Box2D World for 2D physics simulation */
     World world;
 
@@ -58,31 +61,38 @@ public class MazeSolver extends Game implements InputProcessor {
     /** Sprite batch is using for drawing texts from the robot object.  */
     SpriteBatch spriteBatch;
 
+    /** Maze being generated, a few milliseconds per frame. */
+    TileMaze tileMaze;
+
     /**
-     * Generates maze thanks to js42721's work and returns start position.
+     * Builds walls of the maze generated thanks to js42721's work and returns start position.
      * @return start position of robot.
      */
-    private Vector2 generateMaze() {
+    private Vector2 buildMaze() {
         Vector2 startPos = new Vector2();
 
-        TileMaze tileMaze = new TileMaze(new RecursiveBacktracker(32, 32));
-        tileMaze.generate();
-
-        float N = 0.25f; // grid size of the maze in meters
+        final float N = 0.25f; // grid size of the maze in meters
 
+        // One box per horizontal run of wall tiles instead of one per tile.
         for (int y = 0; y < tileMaze.getHeight(); ++y) {
+            tileMaze.forEachWallRun(y, (row, startX, endX) -> {
+                BodyDef bodyDef = new BodyDef();
+                bodyDef.type = BodyDef.BodyType.StaticBody;
+                bodyDef.position.set((startX + endX - 1) * N / 2f, row * N);
+                Body body = world.createBody(bodyDef);
+
+                PolygonShape shape = new PolygonShape();
+                shape.setAsBox((endX - startX) * N / 2f, N / 2f);
+                body.createFixture(shape, 1.0f);
+                shape.dispose();
+            });
+        }
+
+        for (int y = 0; y < tileMaze.getHeight() && startPos.isZero(); ++y) {
             for (int x = 0; x < tileMaze.getWidth(); ++x) {
-                if (tileMaze.isWall(x, y)) {
-                    BodyDef bodyDef = new BodyDef();
-                    bodyDef.type = BodyDef.BodyType.StaticBody;
-                    bodyDef.position.set(x * N, y * N);
-                    Body body = world.createBody(bodyDef);
-
-                    PolygonShape shape = new PolygonShape();
-                    shape.setAsBox(N / 2f, N / 2f);
-                    body.createFixture(shape, 1.0f);
-                } else if (startPos.isZero()) {
+                if (!tileMaze.isWall(x, y)) {
                     startPos = new Vector2(x + N, y + N);
+                    break;
                 }
             }
         }
@@ -103,8 +113,9 @@ public class MazeSolver extends Game implements InputProcessor {
 
         spriteBatch = new SpriteBatch();
 
-        Vector2 startPos = generateMaze();
-        robot = new Robot(this, startPos);
+        // Maze is generated over the first frames, see render().
+        tileMaze = new TileMaze(new RecursiveBacktracker(32, 32));
+        tileMaze.setCached(true);
 
         Gdx.input.setInputProcessor(this);
     }
@@ -113,6 +124,14 @@ public class MazeSolver extends Game implements InputProcessor {
     public void render() {
         ScreenUtils.clear(0, 0, 0, 1);
 
+        if (robot == null) {
+            // Keeps generating the maze without holding up the frame.
+            if (!tileMaze.stepFor(MAZE_MILLIS_PER_FRAME)) {
+                return;
+            }
+            robot = new Robot(this, buildMaze());
+        }
+
         world.step(1 / 60f, 6, 2);
 
         robot.act(Gdx.graphics.getDeltaTime());
@@ -150,7 +169,9 @@ public class MazeSolver extends Game implements InputProcessor {
         debugRenderer.dispose();
         shapeRenderer.dispose();
         spriteBatch.dispose();
-        robot.dispose();
+        if (robot != null) {
+            robot.dispose();
+        }
     }
 
     @Override